@@ -16,23 +16,60 @@
 
 package com.toxyc.hazard;
 
+import android.app.AlertDialog;
 import android.app.Fragment;
 import android.app.FragmentManager;
+import android.content.Context;
+import android.content.Intent;
 import android.graphics.drawable.ColorDrawable;
 import android.os.Bundle;
+import android.os.Looper;
+import android.os.MessageQueue;
 import android.support.annotation.NonNull;
 import android.support.v13.app.FragmentPagerAdapter;
 import android.support.v4.view.ViewPager;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.view.ViewTreeObserver;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
+import android.widget.EditText;
+import android.widget.ListView;
+import android.widget.TextView;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
 
 import com.android.internal.logging.nano.MetricsProto;
 import com.android.settings.R;
+import com.android.settings.SettingsActivity;
 import com.android.settings.SettingsPreferenceFragment;
+import com.android.settings.SubSettings;
 
+import com.toxyc.hazard.fragments.display.FontApplyStats;
+import com.toxyc.hazard.fragments.display.FontMemoryBenchmark;
+import com.toxyc.hazard.fragments.display.FontPreviewCache;
+import com.toxyc.hazard.fragments.display.TypefaceCache;
 import com.toxyc.hazard.navigation.BottomNavigationViewCustom;
+import com.toxyc.hazard.preference.InflationBenchmark;
+import com.toxyc.hazard.preference.ScreenTrace;
+import com.toxyc.hazard.preference.SearchIndex;
+import com.toxyc.hazard.preference.SettingsIoStats;
+import com.toxyc.hazard.preference.SettingsWriteQueue;
 import com.toxyc.hazard.tabs.StatusBar;
 import com.toxyc.hazard.tabs.Recents;
 import com.toxyc.hazard.tabs.Lockscreen;
@@ -40,6 +77,23 @@ import com.toxyc.hazard.tabs.System;
 
 public class HazardSettings extends SettingsPreferenceFragment {
 
+    // dumpsys activity argument that clears the settings I/O histograms
+    private static final String DUMP_ARG_RESET_IO_STATS = "--reset-settings-io";
+    // dumpsys activity argument that turns per key settings I/O latency on or off
+    private static final String DUMP_ARG_TOGGLE_IO_PER_KEY = "--settings-io-per-key";
+    // dumpsys activity argument that times XML against precompiled screens and
+    // checks that they still match
+    private static final String DUMP_ARG_BENCH_INFLATION = "--bench-inflation";
+    private static final int BENCH_INFLATION_ITERATIONS = 50;
+    // dumpsys activity argument that writes the screen open timeline to a file
+    private static final String DUMP_ARG_EXPORT_TRACE = "--export-trace";
+    private static final String TRACE_FILE_NAME = "hazard_trace.json";
+    // dumpsys activity argument that measures the memory of font previews
+    private static final String DUMP_ARG_BENCH_FONT_MEMORY = "--bench-font-memory";
+
+    private static final int MENU_SEARCH = Menu.FIRST;
+    private static final int MAX_SEARCH_RESULTS = 30;
+
     public HazardSettings() {
     }
 
@@ -47,20 +101,121 @@ public class HazardSettings extends SettingsPreferenceFragment {
 
     PagerAdapter mPagerAdapter;
 
+    private ViewPager mViewPager;
+
+    // Puts the creation of every Hazard fragment on the screen open timeline
+    private final FragmentManager.FragmentLifecycleCallbacks mTraceCallbacks =
+            new FragmentManager.FragmentLifecycleCallbacks() {
+        private final HashMap<Fragment, ScreenTrace.Section> mSections =
+                new HashMap<Fragment, ScreenTrace.Section>();
+
+        @Override
+        public void onFragmentPreCreated(FragmentManager fm, Fragment f,
+                Bundle savedInstanceState) {
+            if (isTraced(f)) {
+                mSections.put(f, ScreenTrace.begin(getTraceName(f) + " onCreate"));
+            }
+        }
+
+        @Override
+        public void onFragmentCreated(FragmentManager fm, Fragment f,
+                Bundle savedInstanceState) {
+            // The view is created right after, see FragmentManager#moveToState
+            endSection(f);
+            if (isTraced(f)) {
+                mSections.put(f, ScreenTrace.begin(getTraceName(f) + " onCreateView"));
+            }
+        }
+
+        @Override
+        public void onFragmentViewCreated(FragmentManager fm, Fragment f, View v,
+                Bundle savedInstanceState) {
+            endSection(f);
+        }
+
+        @Override
+        public void onFragmentActivityCreated(FragmentManager fm, Fragment f,
+                Bundle savedInstanceState) {
+            // Fragments without a view never get onFragmentViewCreated
+            endSection(f);
+        }
+
+        private void endSection(Fragment f) {
+            final ScreenTrace.Section section = mSections.remove(f);
+            if (section != null) {
+                section.end();
+            }
+        }
+
+        private boolean isTraced(Fragment f) {
+            return f != HazardSettings.this
+                    && f.getClass().getName().startsWith("com.toxyc.hazard.");
+        }
+
+        private String getTraceName(Fragment f) {
+            return f.getClass().getSimpleName();
+        }
+    };
+
+    @Override
+    public void onCreate(Bundle icicle) {
+        super.onCreate(icicle);
+        SettingsWriteQueue.setEnabled(getActivity(),
+                getResources().getBoolean(R.bool.config_settings_write_behind));
+        getFragmentManager().registerFragmentLifecycleCallbacks(mTraceCallbacks, true);
+        setHasOptionsMenu(true);
+    }
+
+    @Override
+    public void onDestroy() {
+        getFragmentManager().unregisterFragmentLifecycleCallbacks(mTraceCallbacks);
+        super.onDestroy();
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
+        ScreenTrace.start("HazardSettings open");
+        final ScreenTrace.Section section = ScreenTrace.begin("HazardSettings onCreateView");
 
-        View view = inflater.inflate(R.layout.hazard, container, false);
+        final View view = inflater.inflate(R.layout.hazard, container, false);
+        view.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                view.getViewTreeObserver().removeOnPreDrawListener(this);
+                ScreenTrace.mark("first frame");
+                return true;
+            }
+        });
 
         final BottomNavigationViewCustom navigation = view.findViewById(R.id.navigation);
 
         final ViewPager viewPager = view.findViewById(R.id.viewpager);
+        mViewPager = viewPager;
 
         navigation.setBackground(new ColorDrawable(getResources().getColor(R.color.BottomBarBackgroundColor)));
 
         mPagerAdapter = new PagerAdapter(getFragmentManager());
+        viewPager.setOffscreenPageLimit(
+                getResources().getInteger(R.integer.config_hazard_offscreen_tabs));
         viewPager.setAdapter(mPagerAdapter);
 
+        // Only the tabs within the offscreen limit are built for launch, the
+        // rest once the main thread has nothing better to do
+        final PagerAdapter pagerAdapter = mPagerAdapter;
+        // The fragment may be detached by the time the queue goes idle
+        final Context appContext = getActivity().getApplicationContext();
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                if (isAdded() && !getFragmentManager().isStateSaved()) {
+                    pagerAdapter.prewarm(viewPager);
+                }
+                // Have search ready before it is first used
+                SearchIndex.loadAsync(appContext, null);
+                return false;
+            }
+        });
+
         navigation.setOnNavigationItemSelectedListener(new BottomNavigationViewCustom.OnNavigationItemSelectedListener() {
             @Override
             public boolean onNavigationItemSelected(@NonNull MenuItem item) {
@@ -103,30 +258,161 @@ public class HazardSettings extends SettingsPreferenceFragment {
             }
         });
 
+        section.end();
         return view;
     }
 
+    @Override
+    public void onCreateOptionsMenu(Menu menu, MenuInflater inflater) {
+        menu.add(0, MENU_SEARCH, 0, R.string.search_title)
+                .setIcon(R.drawable.ic_action_search)
+                .setShowAsAction(MenuItem.SHOW_AS_ACTION_ALWAYS);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        switch (item.getItemId()) {
+            case MENU_SEARCH:
+                showSearchDialog();
+                return true;
+            default:
+                return super.onOptionsItemSelected(item);
+        }
+    }
+
+    private void showSearchDialog() {
+        final View view = LayoutInflater.from(getActivity())
+                .inflate(R.layout.search_dialog, null);
+        final EditText query = view.findViewById(R.id.search_query);
+        final ListView results = view.findViewById(R.id.search_results);
+        final ArrayAdapter<SearchIndex.Result> adapter = new ArrayAdapter<SearchIndex.Result>(
+                getActivity(), android.R.layout.simple_list_item_2, android.R.id.text1) {
+            @Override
+            public View getView(int position, View convertView, ViewGroup parent) {
+                final View item = super.getView(position, convertView, parent);
+                ((TextView) item.findViewById(android.R.id.text2))
+                        .setText(getItem(position).screenTitle);
+                return item;
+            }
+        };
+        results.setAdapter(adapter);
+
+        final AlertDialog dialog = new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.search_title)
+                .setView(view)
+                .setNegativeButton(R.string.dlg_cancel, null)
+                .create();
+        final Runnable update = new Runnable() {
+            @Override
+            public void run() {
+                if (!dialog.isShowing()) {
+                    return;
+                }
+                final SearchIndex index = SearchIndex.getIfLoaded(dialog.getContext());
+                if (index == null) {
+                    SearchIndex.loadAsync(dialog.getContext(), this);
+                    return;
+                }
+                adapter.clear();
+                adapter.addAll(index.query(query.getText().toString(), MAX_SEARCH_RESULTS));
+            }
+        };
+        query.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                update.run();
+            }
+        });
+        results.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(AdapterView<?> parent, View v, int position, long id) {
+                dialog.dismiss();
+                openSearchResult(adapter.getItem(position));
+            }
+        });
+        dialog.show();
+    }
+
+    private void openSearchResult(SearchIndex.Result result) {
+        if (result.fragment == null && result.linkedFragment == null) {
+            mViewPager.setCurrentItem(result.tab);
+            return;
+        }
+        final Bundle args = new Bundle();
+        final Intent intent = new Intent(Intent.ACTION_MAIN);
+        intent.setClass(getActivity(), SubSettings.class);
+        if (result.linkedFragment != null) {
+            // The preference just opens another screen, so open that one
+            intent.putExtra(SettingsActivity.EXTRA_SHOW_FRAGMENT, result.linkedFragment);
+            intent.putExtra(SettingsActivity.EXTRA_SHOW_FRAGMENT_TITLE, result.title);
+        } else {
+            args.putString(SettingsActivity.EXTRA_FRAGMENT_ARG_KEY, result.key);
+            intent.putExtra(SettingsActivity.EXTRA_SHOW_FRAGMENT, result.fragment);
+            intent.putExtra(SettingsActivity.EXTRA_SHOW_FRAGMENT_TITLE, result.screenTitle);
+        }
+        intent.putExtra(SettingsActivity.EXTRA_SHOW_FRAGMENT_ARGUMENTS, args);
+        startActivity(intent);
+    }
+
     class PagerAdapter extends FragmentPagerAdapter {
 
         String titles[] = getTitles();
-        private Fragment frags[] = new Fragment[titles.length];
+        // Tabs getItem() was called for, restored fragments aren't counted
+        private final boolean[] mCreated = new boolean[titles.length];
 
         public PagerAdapter(FragmentManager fm) {
             super(fm);
-            frags[0] = new StatusBar();
-            frags[1] = new Recents();
-            frags[2] = new Lockscreen();
-            frags[3] = new System();
         }
 
+        /**
+         * Creates the fragments of the tabs ViewPager hasn't built yet and
+         * detaches them straight away, so their preferences are inflated but
+         * no views are kept until a tab is shown.
+         */
+        void prewarm(ViewPager viewPager) {
+            final int current = viewPager.getCurrentItem();
+            final int limit = viewPager.getOffscreenPageLimit();
+            startUpdate(viewPager);
+            for (int i = 0; i < getCount(); i++) {
+                // Tabs in the window are ViewPager's, attached or about to be
+                if (!mCreated[i] && Math.abs(i - current) > limit) {
+                    destroyItem(viewPager, i, instantiateItem(viewPager, i));
+                }
+            }
+            finishUpdate(viewPager);
+        }
+
+        /**
+         * Only called the first time a tab is shown or prewarmed,
+         * FragmentPagerAdapter keeps the fragment around after that.
+         */
         @Override
         public Fragment getItem(int position) {
-            return frags[position];
+            mCreated[position] = true;
+            switch (position) {
+                case 0:
+                    return new StatusBar();
+                case 1:
+                    return new Recents();
+                case 2:
+                    return new Lockscreen();
+                case 3:
+                    return new System();
+            }
+            throw new IllegalArgumentException("unknown tab " + position);
         }
 
         @Override
         public int getCount() {
-            return frags.length;
+            return titles.length;
         }
 
         @Override
@@ -135,6 +421,65 @@ public class HazardSettings extends SettingsPreferenceFragment {
         }
     }
 
+    /**
+     * Prints settings I/O latency and the screen open timeline, pull it with
+     * {@code adb shell dumpsys activity com.android.settings [--reset-settings-io]
+     * [--settings-io-per-key]
+     * [--bench-inflation] [--export-trace] [--bench-font-memory]}.
+     */
+    @Override
+    public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+        super.dump(prefix, fd, writer, args);
+        SettingsIoStats.dump(prefix, writer);
+        if (args != null && Arrays.asList(args).contains(DUMP_ARG_RESET_IO_STATS)) {
+            SettingsIoStats.reset();
+            writer.print(prefix);
+            writer.println("Settings I/O latency reset");
+        }
+        if (args != null && Arrays.asList(args).contains(DUMP_ARG_TOGGLE_IO_PER_KEY)) {
+            SettingsIoStats.setPerKeyEnabled(!SettingsIoStats.isPerKeyEnabled());
+            writer.print(prefix);
+            writer.println("Settings I/O latency per key "
+                    + (SettingsIoStats.isPerKeyEnabled() ? "on" : "off"));
+        }
+        if (args != null && Arrays.asList(args).contains(DUMP_ARG_BENCH_INFLATION)) {
+            InflationBenchmark.run(getPreferenceManager(), writer, BENCH_INFLATION_ITERATIONS);
+        }
+        ScreenTrace.dump(prefix, writer);
+        final TypefaceCache typefaces = TypefaceCache.peekInstance();
+        if (typefaces != null) {
+            typefaces.dump(prefix, writer);
+        }
+        FontApplyStats.dump(prefix, writer);
+        final FontPreviewCache previews = FontPreviewCache.peekInstance();
+        if (previews != null) {
+            previews.dump(prefix, writer);
+        }
+        if (args != null && Arrays.asList(args).contains(DUMP_ARG_BENCH_FONT_MEMORY)) {
+            FontMemoryBenchmark.run(writer);
+        }
+        if (args != null && Arrays.asList(args).contains(DUMP_ARG_EXPORT_TRACE)) {
+            exportTrace(prefix, writer);
+        }
+    }
+
+    private void exportTrace(String prefix, PrintWriter writer) {
+        // External cache, so it can be pulled without root
+        File dir = getActivity().getExternalCacheDir();
+        if (dir == null) {
+            dir = getActivity().getCacheDir();
+        }
+        final File file = new File(dir, TRACE_FILE_NAME);
+        writer.print(prefix);
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(file),
+                StandardCharsets.UTF_8)) {
+            ScreenTrace.writeJson(out);
+            writer.println("Screen open timeline written to " + file);
+        } catch (IOException e) {
+            writer.println("Failed to write " + file + ": " + e);
+        }
+    }
+
     private String[] getTitles() {
         String titleString[];
         titleString = new String[]{
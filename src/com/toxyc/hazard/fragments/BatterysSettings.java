@@ -18,6 +18,7 @@ package com.toxyc.hazard.fragments;
 
 import android.content.ContentResolver;
 import android.os.Bundle;
+import android.os.UserHandle;
 import android.support.v7.preference.PreferenceCategory;
 import android.support.v7.preference.ListPreference;
 import android.support.v7.preference.Preference;
@@ -30,6 +31,14 @@ import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 
+import com.toxyc.hazard.preference.PreferenceRules;
+import com.toxyc.hazard.preference.SettingsLoader;
+import com.toxyc.hazard.preference.SettingsPrefetcher;
+import com.toxyc.hazard.preference.SettingsSchema;
+import com.toxyc.hazard.preference.SettingsStore;
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+import com.toxyc.hazard.preference.SystemSettingsStore;
+
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 
 public class BatterysSettings extends SettingsPreferenceFragment implements Preference.OnPreferenceChangeListener {
@@ -40,48 +49,78 @@ public class BatterysSettings extends SettingsPreferenceFragment implements Pref
     private ListPreference mBatteryIconStyle;
     private ListPreference mBatteryPercentage;
 
+    private SettingsStore mSecureStore;
+    private SettingsStore mSystemStore;
+
+    private SettingsLoader mLoader;
+    private PreferenceRules mRules;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         addPreferencesFromResource(R.xml.batterys_settings);
         final ContentResolver resolver = getActivity().getContentResolver();
+        mSecureStore = new SettingsStore(resolver, Namespace.SECURE);
+        mSystemStore = new SystemSettingsStore(resolver);
 
-        int batteryStyle = Settings.Secure.getInt(resolver,
-                Settings.Secure.STATUS_BAR_BATTERY_STYLE, 0);
+        // The style isn't persisted here, it keeps its plain summary until
+        // loaded. The percentage shows its last known value.
         mBatteryIconStyle = (ListPreference) findPreference(BATTERY_STYLE);
+        mBatteryIconStyle.setOnPreferenceChangeListener(this);
+        mBatteryPercentage = (ListPreference) findPreference(BATTERY_PERCENT);
+        mBatteryPercentage.setSummary(mBatteryPercentage.getEntry());
+        mBatteryPercentage.setOnPreferenceChangeListener(this);
+
+        // No forced percentage with the text or hidden style
+        mRules = new PreferenceRules(resolver, UserHandle.myUserId())
+                .enableWhen(mBatteryPercentage, PreferenceRules.intNotIn(
+                        SettingsSchema.STATUS_BAR_BATTERY_STYLE, 6, 7));
+
+        mLoader = new SettingsLoader(new SettingsPrefetcher(getActivity())
+                .addScreen(R.xml.batterys_settings)
+                .add(Namespace.SECURE, Settings.Secure.STATUS_BAR_BATTERY_STYLE)
+                .add(Namespace.SYSTEM, Settings.System.SHOW_BATTERY_PERCENT));
+        mLoader.load(new SettingsLoader.OnLoadedListener() {
+            @Override
+            public void onSettingsLoaded() {
+                bindSettings();
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        mLoader.cancel();
+        super.onDestroy();
+    }
+
+    private void bindSettings() {
+        int batteryStyle = mSecureStore.getInt(SettingsSchema.STATUS_BAR_BATTERY_STYLE);
         mBatteryIconStyle.setValue(Integer.toString(batteryStyle));
         int valueIndex = mBatteryIconStyle.findIndexOfValue(String.valueOf(batteryStyle));
         mBatteryIconStyle.setSummary(mBatteryIconStyle.getEntries()[valueIndex]);
-        mBatteryIconStyle.setOnPreferenceChangeListener(this);
 
-        int showPercent = Settings.System.getInt(resolver,
-                Settings.System.SHOW_BATTERY_PERCENT, 0);
-        mBatteryPercentage = (ListPreference) findPreference(BATTERY_PERCENT);
+        int showPercent = mSystemStore.getInt(SettingsSchema.SHOW_BATTERY_PERCENT);
         mBatteryPercentage.setValue(Integer.toString(showPercent));
         valueIndex = mBatteryPercentage.findIndexOfValue(String.valueOf(showPercent));
         mBatteryPercentage.setSummary(mBatteryPercentage.getEntries()[valueIndex]);
-        mBatteryPercentage.setOnPreferenceChangeListener(this);
-        boolean hideForcePercentage = batteryStyle == 6 || batteryStyle == 7; /*text or hidden style*/
-        mBatteryPercentage.setEnabled(!hideForcePercentage);
+        mRules.evaluateAll();
     }
 
     @Override
     public boolean onPreferenceChange(Preference preference, Object newValue) {
         if (preference == mBatteryIconStyle) {
             int value = Integer.valueOf((String) newValue);
-            Settings.Secure.putInt(getContentResolver(),
-                    Settings.Secure.STATUS_BAR_BATTERY_STYLE, value);
+            mSecureStore.putInt(Settings.Secure.STATUS_BAR_BATTERY_STYLE, value);
             int valueIndex = mBatteryIconStyle
                     .findIndexOfValue((String) newValue);
             mBatteryIconStyle
                     .setSummary(mBatteryIconStyle.getEntries()[valueIndex]);
-            boolean hideForcePercentage = value == 6 || value == 7;/*text or hidden style*/
-            mBatteryPercentage.setEnabled(!hideForcePercentage);
+            mRules.onValueChanged(SettingsSchema.STATUS_BAR_BATTERY_STYLE, value);
             return true;
         } else  if (preference == mBatteryPercentage) {
             int value = Integer.valueOf((String) newValue);
-            Settings.System.putInt(getActivity().getContentResolver(),
-                    Settings.System.SHOW_BATTERY_PERCENT, value);
+            mSystemStore.putInt(Settings.System.SHOW_BATTERY_PERCENT, value);
             int valueIndex = mBatteryPercentage
                     .findIndexOfValue((String) newValue);
             mBatteryPercentage
@@ -37,6 +37,12 @@ import com.android.settings.Utils;
 
 import com.toxyc.hazard.preference.ActionFragment;
 import com.toxyc.hazard.preference.ActionPreference;
+import com.toxyc.hazard.preference.PreferenceRules;
+import com.toxyc.hazard.preference.SettingsLoader;
+import com.toxyc.hazard.preference.SettingsPrefetcher;
+import com.toxyc.hazard.preference.SettingsSchema;
+import com.toxyc.hazard.preference.SettingsStore;
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
 
 import com.android.internal.util.hwkeys.ActionConstants;
 import com.android.internal.util.hwkeys.ActionUtils;
@@ -68,16 +74,42 @@ public class ButtonSettings extends ActionFragment implements
     public static final int KEY_MASK_VOLUME = 0x40;
 
     private ContentResolver resolver;
+    private SettingsStore mSecureStore;
 
     private SwitchPreference mHwKeyEnable;
+    private PreferenceRules mRules;
+
+    private SettingsLoader mLoader;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        addPreferencesFromResource(R.xml.buttons);
-
         resolver = getActivity().getContentResolver();
+        mSecureStore = new SettingsStore(resolver, Namespace.SECURE);
+
+        // The switches read their keys as they are added, so the screen is
+        // only built once all of them are cached
+        mLoader = new SettingsLoader(new SettingsPrefetcher(getActivity())
+                .addScreen(R.xml.buttons)
+                .add(Namespace.SECURE, UserHandle.USER_CURRENT,
+                        Settings.Secure.HARDWARE_KEYS_DISABLE));
+        mLoader.load(new SettingsLoader.OnLoadedListener() {
+            @Override
+            public void onSettingsLoaded() {
+                buildScreen();
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        mLoader.cancel();
+        super.onDestroy();
+    }
+
+    private void buildScreen() {
+        addPreferencesFromResource(R.xml.buttons);
         final PreferenceScreen prefScreen = getPreferenceScreen();
 
         // HW Keys
@@ -96,7 +128,7 @@ public class ButtonSettings extends ActionFragment implements
                 (PreferenceCategory) prefScreen.findPreference(CATEGORY_UTOUCH);
 
         final boolean hwKeysSupported = ActionUtils.isHWKeysSupported(getActivity());
-        boolean hwKeysEnabled = hwKeysSupported && Settings.Secure.getIntForUser(getContentResolver(),
+        boolean hwKeysEnabled = hwKeysSupported && mSecureStore.getIntForUser(
                     Settings.Secure.HARDWARE_KEYS_DISABLE, 0,
                     UserHandle.USER_CURRENT) == 0;
 
@@ -192,8 +224,15 @@ public class ButtonSettings extends ActionFragment implements
         // let super know we can load ActionPreferences
         onPreferenceScreenLoaded(ActionConstants.getDefaults(ActionConstants.HWKEYS));
 
-        // load preferences first
-        setActionPreferencesEnabled(hwKeysEnabled);
+        // load preferences first, then enable them while hardware keys are on
+        mRules = new PreferenceRules(resolver, UserHandle.USER_CURRENT)
+                .applyWhen(new PreferenceRules.Target() {
+                    @Override
+                    public void apply(boolean value) {
+                        setActionPreferencesEnabled(hwKeysSupported && value);
+                    }
+                }, PreferenceRules.isFalse(SettingsSchema.HARDWARE_KEYS_DISABLE));
+        mRules.evaluateAll();
     }
 
     @Override
@@ -205,9 +244,8 @@ public class ButtonSettings extends ActionFragment implements
     public boolean onPreferenceChange(Preference preference, Object newValue) {
         if (preference == mHwKeyEnable) {
             boolean value = (Boolean) newValue;
-            Settings.Secure.putInt(getContentResolver(), Settings.Secure.HARDWARE_KEYS_DISABLE,
-                    value ? 0 : 1);
-            setActionPreferencesEnabled(value);
+            mSecureStore.putInt(Settings.Secure.HARDWARE_KEYS_DISABLE, value ? 0 : 1);
+            mRules.onValueChanged(SettingsSchema.HARDWARE_KEYS_DISABLE, !value);
             return true;
         }
         return true;
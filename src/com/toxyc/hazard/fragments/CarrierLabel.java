@@ -37,6 +37,10 @@ import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 
+import com.toxyc.hazard.preference.SettingsSchema;
+import com.toxyc.hazard.preference.SettingsStore;
+import com.toxyc.hazard.preference.SystemSettingsStore;
+
 import com.android.internal.logging.nano.MetricsProto;
 
 public class CarrierLabel extends SettingsPreferenceFragment implements Preference.OnPreferenceChangeListener {
@@ -48,16 +52,17 @@ public class CarrierLabel extends SettingsPreferenceFragment implements Preferen
     private String mCustomCarrierLabelText;
     private ListPreference mShowCarrierLabel;
 
+    private SettingsStore mStore;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         addPreferencesFromResource(R.xml.carrier_label);
 
-        final ContentResolver resolver = getActivity().getContentResolver();
+        mStore = new SystemSettingsStore(getActivity().getContentResolver());
 
         mShowCarrierLabel = (ListPreference) findPreference(KEY_STATUS_BAR_CARRIER);
-        int showCarrierLabel = Settings.System.getInt(resolver,
-                Settings.System.STATUS_BAR_CARRIER, 0);
+        int showCarrierLabel = mStore.getInt(SettingsSchema.STATUS_BAR_CARRIER);
         mShowCarrierLabel.setValue(String.valueOf(showCarrierLabel));
         mShowCarrierLabel.setSummary(mShowCarrierLabel.getEntry());
         mShowCarrierLabel.setOnPreferenceChangeListener(this);
@@ -68,12 +73,10 @@ public class CarrierLabel extends SettingsPreferenceFragment implements Preferen
 
     @Override
     public boolean onPreferenceChange(Preference preference, Object newValue) {
-        ContentResolver resolver = getActivity().getContentResolver();
         if (preference == mShowCarrierLabel) {
             int showCarrierLabel = Integer.valueOf((String) newValue);
             int index = mShowCarrierLabel.findIndexOfValue((String) newValue);
-            Settings.System.putInt(resolver, Settings.System.
-                    STATUS_BAR_CARRIER, showCarrierLabel);
+            mStore.putInt(Settings.System.STATUS_BAR_CARRIER, showCarrierLabel);
             mShowCarrierLabel.setSummary(mShowCarrierLabel.getEntries()[index]);
             return true;
         }
@@ -83,7 +86,6 @@ public class CarrierLabel extends SettingsPreferenceFragment implements Preferen
     @Override
     public boolean onPreferenceTreeClick(final Preference preference) {
         super.onPreferenceTreeClick(preference);
-        final ContentResolver resolver = getActivity().getContentResolver();
         if (preference.getKey().equals(KEY_CUSTOM_CARRIER_LABEL)) {
             AlertDialog.Builder alert = new AlertDialog.Builder(getActivity());
             alert.setTitle(R.string.custom_carrier_label_title);
@@ -100,7 +102,8 @@ public class CarrierLabel extends SettingsPreferenceFragment implements Preferen
                     new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int whichButton) {
                             String value = ((Spannable) input.getText()).toString().trim();
-                            Settings.System.putString(resolver, Settings.System.CUSTOM_CARRIER_LABEL, value);
+                            // Receivers of the broadcast below read the label right away
+                            mStore.putNow(Settings.System.CUSTOM_CARRIER_LABEL, value);
                             updateCustomLabelTextSummary();
                             Intent i = new Intent();
                             i.setAction(Intent.ACTION_CUSTOM_CARRIER_LABEL_CHANGED);
@@ -114,8 +117,7 @@ public class CarrierLabel extends SettingsPreferenceFragment implements Preferen
     }
 
     private void updateCustomLabelTextSummary() {
-        mCustomCarrierLabelText = Settings.System.getString(
-                getActivity().getContentResolver(), Settings.System.CUSTOM_CARRIER_LABEL);
+        mCustomCarrierLabelText = mStore.getString(SettingsSchema.CUSTOM_CARRIER_LABEL);
 
         if (TextUtils.isEmpty(mCustomCarrierLabelText)) {
             mCustomCarrierLabel.setSummary(R.string.custom_carrier_label_notset);
@@ -23,6 +23,7 @@ import android.content.ContentResolver;
 import android.content.DialogInterface;
 import android.content.DialogInterface.OnCancelListener;
 import android.os.Bundle;
+import android.os.UserHandle;
 import android.support.v7.preference.EditTextPreference;
 import android.support.v7.preference.ListPreference;
 import android.support.v7.preference.Preference;
@@ -33,18 +34,32 @@ import android.support.v7.preference.Preference.OnPreferenceChangeListener;
 import android.support.v14.preference.PreferenceFragment;
 import android.support.v14.preference.SwitchPreference;
 import android.provider.Settings;
-import android.text.format.DateFormat;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.View;
+import android.widget.Button;
 import android.widget.EditText;
+import android.widget.TextView;
 
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 
 import com.android.internal.logging.nano.MetricsProto;
 
-import java.util.Date;
+import com.toxyc.hazard.preference.PrecompiledScreens;
+import com.toxyc.hazard.preference.PreferenceRules;
+import com.toxyc.hazard.preference.SettingsLoader;
+import com.toxyc.hazard.preference.SettingsPrefetcher;
+import com.toxyc.hazard.preference.SettingsSchema;
+import com.toxyc.hazard.preference.SettingsStore;
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+import com.toxyc.hazard.preference.SystemSettingsStore;
+import com.toxyc.hazard.utils.DateFormatPreviews;
+
+import java.util.Set;
 
 public class ClockDateSettings extends SettingsPreferenceFragment implements
         Preference.OnPreferenceChangeListener { 
@@ -64,8 +79,6 @@ public class ClockDateSettings extends SettingsPreferenceFragment implements
     private static final String PREF_DATE_SIZE_SMALL =
             "clock_date_date_size_small";
 
-    private static final int DATE_STYLE_LOWERCASE     = 1;
-    private static final int DATE_STYLE_UPPERCASE     = 2;
     private static final int CUSTOM_DATE_FORMAT_INDEX = 18;
 
     private static final int MENU_RESET = Menu.FIRST;
@@ -77,86 +90,128 @@ public class ClockDateSettings extends SettingsPreferenceFragment implements
     private ListPreference mDateFormat;
     private ListPreference mDateStyle;
     private SwitchPreference mDateSizeSmall;
+    private PreferenceCategory mDateCategory;
+
+    private SettingsStore mStore;
+    private PreferenceRules mRules;
 
-    private ContentResolver mResolver;
+    private SettingsLoader mLoader;
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        refreshSettings();
+        bindPreferences();
+        mLoader = new SettingsLoader(new SettingsPrefetcher(getActivity())
+                .add(Namespace.SYSTEM,
+                        Settings.System.STATUS_BAR_CLOCK_DATE_POSITION,
+                        Settings.System.STATUS_BAR_CLOCK_SHOW_SECONDS,
+                        Settings.System.STATUS_BAR_CLOCK_SHOW_DATE,
+                        Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT,
+                        Settings.System.STATUS_BAR_CLOCK_DATE_STYLE,
+                        Settings.System.STATUS_BAR_CLOCK_DATE_SIZE_SMALL));
+        mLoader.load(new SettingsLoader.OnLoadedListener() {
+            @Override
+            public void onSettingsLoaded() {
+                refreshSettings();
+            }
+        });
     }
 
-    public void refreshSettings() {
-        PreferenceScreen prefs = getPreferenceScreen();
-        if (prefs != null) {
-            prefs.removeAll();
-        }
-
-        addPreferencesFromResource(R.xml.status_bar_clock_date_settings);
+    @Override
+    public void onDestroy() {
+        mLoader.cancel();
+        super.onDestroy();
+    }
 
-        mResolver = getContentResolver();
+    @Override
+    public void onResume() {
+        super.onResume();
+        SettingsStore.addOnSettingsChangedListener(mSettingsChangedListener);
+    }
 
-        mClockDatePosition =
-                (ListPreference) findPreference(PREF_CLOCK_DATE_POSITION);
-        int clockDatePosition = Settings.System.getInt(mResolver,
-                Settings.System.STATUS_BAR_CLOCK_DATE_POSITION, 1);
-        mClockDatePosition.setValue(String.valueOf(clockDatePosition));
-        mClockDatePosition.setSummary(mClockDatePosition.getEntry());
-        mClockDatePosition.setOnPreferenceChangeListener(this);
+    @Override
+    public void onPause() {
+        super.onPause();
+        SettingsStore.removeOnSettingsChangedListener(mSettingsChangedListener);
+    }
 
-        boolean isClockEnabled = clockDatePosition != 2;
-        boolean isDateEnabled = isClockEnabled && Settings.System.getInt(mResolver,
-               Settings.System.STATUS_BAR_CLOCK_SHOW_DATE, 0) == 1;
+    // Resets are applied as one transaction, so this refreshes the screen once
+    private final SettingsStore.OnSettingsChangedListener mSettingsChangedListener =
+            new SettingsStore.OnSettingsChangedListener() {
+        @Override
+        public void onSettingsChanged(Namespace namespace, Set<String> keys) {
+            // Before the load, its own refresh shows the change
+            if (namespace == Namespace.SYSTEM && mLoader.isLoaded()) {
+                refreshSettings();
+            }
+        }
+    };
+
+    private void bindPreferences() {
+        setPreferenceScreen(PrecompiledScreens.inflate(getPreferenceManager(),
+                R.xml.status_bar_clock_date_settings));
+
+        mStore = new SystemSettingsStore(getContentResolver());
+
+        mClockDatePosition = (ListPreference) findPreference(PREF_CLOCK_DATE_POSITION);
+        mShowSeconds = (SwitchPreference) findPreference(PREF_SHOW_SECONDS);
+        mShowDate = (SwitchPreference) findPreference(PREF_SHOW_DATE);
+        mDateCategory = (PreferenceCategory) findPreference(PREF_CAT_DATE);
+        mDateFormat = (ListPreference) findPreference(PREF_DATE_FORMAT);
+        mDateStyle = (ListPreference) findPreference(PREF_DATE_STYLE);
+        mDateSizeSmall = (SwitchPreference) findPreference(PREF_DATE_SIZE_SMALL);
+
+        // Values live in Settings.System, so nothing should be reloaded from
+        // shared preferences when a hidden preference is shown again
+        mClockDatePosition.setPersistent(false);
+        mShowSeconds.setPersistent(false);
+        mShowDate.setPersistent(false);
+        mDateFormat.setPersistent(false);
+        mDateStyle.setPersistent(false);
+        mDateSizeSmall.setPersistent(false);
 
-        PreferenceCategory catDate =
-                (PreferenceCategory) findPreference(PREF_CAT_DATE);
+        mClockDatePosition.setOnPreferenceChangeListener(this);
+        mShowSeconds.setOnPreferenceChangeListener(this);
+        mShowDate.setOnPreferenceChangeListener(this);
+        mDateFormat.setOnPreferenceChangeListener(this);
+        mDateStyle.setOnPreferenceChangeListener(this);
+        mDateSizeSmall.setOnPreferenceChangeListener(this);
+
+        // Seconds and date need a visible clock, the date options a shown date
+        final PreferenceScreen screen = getPreferenceScreen();
+        final PreferenceRules.Condition clockShown = PreferenceRules.intNotIn(
+                SettingsSchema.STATUS_BAR_CLOCK_DATE_POSITION, 2);
+        mRules = new PreferenceRules(getContentResolver(), UserHandle.myUserId())
+                .showWhen(screen, mShowSeconds, clockShown)
+                .showWhen(screen, mShowDate, clockShown)
+                .showWhen(screen, mDateCategory, PreferenceRules.and(clockShown,
+                        PreferenceRules.isTrue(SettingsSchema.STATUS_BAR_CLOCK_SHOW_DATE)));
 
-        if (isClockEnabled) {
-            mShowSeconds = (SwitchPreference) findPreference(PREF_SHOW_SECONDS);
-            mShowSeconds.setChecked(Settings.System.getInt(mResolver,
-                    Settings.System.STATUS_BAR_CLOCK_SHOW_SECONDS, 0) == 1);
-            mShowSeconds.setOnPreferenceChangeListener(this);
+        setHasOptionsMenu(true);
+    }
 
-            mShowDate = (SwitchPreference) findPreference(PREF_SHOW_DATE);
-            mShowDate.setChecked(isDateEnabled);
-            mShowDate.setOnPreferenceChangeListener(this);
+    /**
+     * Loads the current values into the existing preferences and shows only
+     * the ones that apply, without rebuilding the screen.
+     */
+    public void refreshSettings() {
+        int clockDatePosition = mStore.getInt(SettingsSchema.STATUS_BAR_CLOCK_DATE_POSITION);
+        mClockDatePosition.setValue(String.valueOf(clockDatePosition));
+        mClockDatePosition.setSummary(mClockDatePosition.getEntry());
 
-        } else {
-            removePreference(PREF_SHOW_DATE);
-            removePreference(PREF_SHOW_SECONDS);
-        }
+        mShowSeconds.setChecked(
+                mStore.getBoolean(SettingsSchema.STATUS_BAR_CLOCK_SHOW_SECONDS));
+        mShowDate.setChecked(mStore.getBoolean(SettingsSchema.STATUS_BAR_CLOCK_SHOW_DATE));
 
-        if (isClockEnabled && isDateEnabled) {
-            mDateFormat = (ListPreference) findPreference(PREF_DATE_FORMAT);
-            parseDateFormats();
-            String dateFormat = Settings.System.getString(mResolver,
-                    Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT);
-            if (dateFormat == null) {
-                dateFormat = "EEE";
-            }
-            mDateFormat.setValue(dateFormat);
-            mDateFormat.setOnPreferenceChangeListener(this);
-
-            mDateStyle = (ListPreference) findPreference(PREF_DATE_STYLE);
-            int dateStyle = Settings.System.getInt(mResolver,
-                    Settings.System.STATUS_BAR_CLOCK_DATE_STYLE, 0);
-            mDateStyle.setValue(String.valueOf(dateStyle));
-            mDateStyle.setSummary(mDateStyle.getEntry());
-            mDateStyle.setOnPreferenceChangeListener(this);
-
-            mDateSizeSmall = (SwitchPreference) findPreference(PREF_DATE_SIZE_SMALL);
-            mDateSizeSmall.setChecked(Settings.System.getInt(mResolver,
-                    Settings.System.STATUS_BAR_CLOCK_DATE_SIZE_SMALL, 0) == 1);
-            mDateSizeSmall.setOnPreferenceChangeListener(this);
-
-        } else {
-            catDate.removePreference(findPreference(PREF_DATE_FORMAT));
-            catDate.removePreference(findPreference(PREF_DATE_STYLE));
-            catDate.removePreference(findPreference(PREF_DATE_SIZE_SMALL));
-            removePreference(PREF_CAT_DATE);
-        }
+        parseDateFormats();
+        mDateFormat.setValue(mStore.getString(SettingsSchema.STATUS_BAR_CLOCK_DATE_FORMAT));
+        mDateStyle.setValue(String.valueOf(
+                mStore.getInt(SettingsSchema.STATUS_BAR_CLOCK_DATE_STYLE)));
+        mDateStyle.setSummary(mDateStyle.getEntry());
+        mDateSizeSmall.setChecked(
+                mStore.getBoolean(SettingsSchema.STATUS_BAR_CLOCK_DATE_SIZE_SMALL));
 
-        setHasOptionsMenu(true);
+        mRules.evaluateAll();
     }
 
     @Override
@@ -179,117 +234,122 @@ public class ClockDateSettings extends SettingsPreferenceFragment implements
 
     public boolean onPreferenceChange(Preference preference, Object newValue) {
         boolean result = false;
-        AlertDialog dialog;
 
         if (preference == mClockDatePosition) {
             int clockDatePosition = Integer.valueOf((String) newValue);
             int index = mClockDatePosition.findIndexOfValue((String) newValue);
-            Settings.System.putInt(mResolver,
-                    Settings.System.STATUS_BAR_CLOCK_DATE_POSITION, clockDatePosition);
+            mStore.putInt(Settings.System.STATUS_BAR_CLOCK_DATE_POSITION, clockDatePosition);
             preference.setSummary(mClockDatePosition.getEntries()[index]);
-            refreshSettings();
+            mRules.onValueChanged(SettingsSchema.STATUS_BAR_CLOCK_DATE_POSITION,
+                    clockDatePosition);
             return true;
         } else if (preference == mShowSeconds) {
             boolean value = (Boolean) newValue;
-            Settings.System.putInt(mResolver,
-                    Settings.System.STATUS_BAR_CLOCK_SHOW_SECONDS, value ? 1 : 0);
+            mStore.putInt(Settings.System.STATUS_BAR_CLOCK_SHOW_SECONDS, value ? 1 : 0);
             return true;
         } else if (preference == mShowDate) {
             boolean value = (Boolean) newValue;
-            Settings.System.putInt(mResolver,
-                    Settings.System.STATUS_BAR_CLOCK_SHOW_DATE, value ? 1 : 0);
-            refreshSettings();
+            mStore.putInt(Settings.System.STATUS_BAR_CLOCK_SHOW_DATE, value ? 1 : 0);
+            mRules.onValueChanged(SettingsSchema.STATUS_BAR_CLOCK_SHOW_DATE, value);
             return true;
         }  else if (preference == mDateFormat) {
             int index = mDateFormat.findIndexOfValue((String) newValue);
 
             if (index == CUSTOM_DATE_FORMAT_INDEX) {
-                AlertDialog.Builder alert =
-                        new AlertDialog.Builder(getActivity());
-                alert.setTitle(
-                        R.string.clock_date_date_string_edittext_title);
-                alert.setMessage(
-                        R.string.clock_date_date_string_edittext_summary);
-                final EditText input = new EditText(getActivity());
-                String oldText = Settings.System.getString(mResolver,
-                        Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT);
-                if (oldText != null) {
-                    input.setText(oldText);
-                }
-                alert.setView(input);
-                alert.setPositiveButton(R.string.dlg_ok,
-                        new DialogInterface.OnClickListener() {
-                    public void onClick(DialogInterface dialogInterface,
-                            int whichButton) {
-                        String value = input.getText().toString();
-                        if (value.equals("")) {
-                            return;
-                        }
-                        Settings.System.putString(mResolver,
-                                Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT, value);
-
-                        return;
-                    }
-                });
-
-                alert.setNegativeButton(R.string.dlg_cancel,
-                        new DialogInterface.OnClickListener() {
-                    public void onClick(DialogInterface dialogInterface,
-                            int which) {
-                        return;
-                    }
-                });
-                dialog = alert.create();
-                dialog.show();
+                showCustomDateFormatDialog();
             } else {
                 if ((String) newValue != null) {
-                    Settings.System.putString(mResolver,
-                            Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT, (String) newValue);
+                    mStore.putString(Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT,
+                            (String) newValue);
                 }
             }
             return true;
         } else if (preference == mDateStyle) {
             int dateStyle = Integer.valueOf((String) newValue);
             int index = mDateStyle.findIndexOfValue((String) newValue);
-            Settings.System.putInt(mResolver,
-                    Settings.System.STATUS_BAR_CLOCK_DATE_STYLE, dateStyle);
+            mStore.putInt(Settings.System.STATUS_BAR_CLOCK_DATE_STYLE, dateStyle);
             preference.setSummary(mDateStyle.getEntries()[index]);
+            // The format previews are shown in the chosen case
+            parseDateFormats();
             return true;
         } else if (preference == mDateSizeSmall) {
             boolean value = (Boolean) newValue;
-            Settings.System.putInt(mResolver,
-                    Settings.System.STATUS_BAR_CLOCK_DATE_SIZE_SMALL, value ? 1 : 0);
+            mStore.putInt(Settings.System.STATUS_BAR_CLOCK_DATE_SIZE_SMALL, value ? 1 : 0);
             return true;
         }
         return false;
     }
 
+    private void showCustomDateFormatDialog() {
+        final View view = getActivity().getLayoutInflater()
+                .inflate(R.layout.date_format_dialog, null);
+        final EditText input = view.findViewById(R.id.date_format_input);
+        final TextView preview = view.findViewById(R.id.date_format_preview);
+        String oldText = mStore.getString(
+                Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT, null);
+        if (oldText != null) {
+            input.setText(oldText);
+        }
+
+        final AlertDialog dialog = new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.clock_date_date_string_edittext_title)
+                .setMessage(R.string.clock_date_date_string_edittext_summary)
+                .setView(view)
+                .setPositiveButton(R.string.dlg_ok, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialogInterface, int whichButton) {
+                        mStore.putString(Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT,
+                                input.getText().toString());
+                    }
+                })
+                .setNegativeButton(R.string.dlg_cancel, null)
+                .create();
+
+        // Only the typed pattern is formatted, on every change
+        final TextWatcher watcher = new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                final String text = DateFormatPreviews.validate(s.toString(),
+                        mStore.getInt(SettingsSchema.STATUS_BAR_CLOCK_DATE_STYLE));
+                if (text != null) {
+                    preview.setText(getString(R.string.clock_date_date_string_preview, text));
+                } else {
+                    preview.setText(R.string.clock_date_date_string_invalid);
+                }
+                final Button ok = dialog.getButton(DialogInterface.BUTTON_POSITIVE);
+                if (ok != null) {
+                    ok.setEnabled(text != null);
+                }
+            }
+        };
+        input.addTextChangedListener(watcher);
+        dialog.show();
+        watcher.afterTextChanged(input.getText());
+    }
+
     private void parseDateFormats() {
         // Parse and repopulate mStatusBarDateFormat's entries based on current date.
         String[] dateEntries = getResources().getStringArray(
                 R.array.clock_date_date_format_entries);
         CharSequence parsedDateEntries[];
         parsedDateEntries = new String[dateEntries.length];
-        Date now = new Date();
 
         int lastEntry = dateEntries.length - 1;
-        int dateStyle = Settings.System.getInt(mResolver,
-                Settings.System.STATUS_BAR_CLOCK_DATE_STYLE, 2);
+        // Unset previews uppercase, as they always have
+        int dateStyle = mStore.getInt(Settings.System.STATUS_BAR_CLOCK_DATE_STYLE,
+                DateFormatPreviews.STYLE_UPPERCASE);
         for (int i = 0; i < dateEntries.length; i++) {
             if (i == lastEntry) {
                 parsedDateEntries[i] = dateEntries[i];
             } else {
-                String newDate;
-                CharSequence dateString = DateFormat.format(dateEntries[i], now);
-                if (dateStyle == DATE_STYLE_LOWERCASE) {
-                    newDate = dateString.toString().toLowerCase();
-                } else if (dateStyle == DATE_STYLE_UPPERCASE) {
-                    newDate = dateString.toString().toUpperCase();
-                } else {
-                    newDate = dateString.toString();
-                }
-
-                parsedDateEntries[i] = newDate;
+                parsedDateEntries[i] = DateFormatPreviews.get(dateEntries[i], dateStyle);
             }
         }
         mDateFormat.setEntries(parsedDateEntries);
@@ -327,37 +387,29 @@ public class ClockDateSettings extends SettingsPreferenceFragment implements
                     .setNeutralButton(R.string.dlg_reset_android,
                             new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int which) {
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_DATE_POSITION, 0);
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_SHOW_SECONDS, 0);
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_SHOW_DATE, 0);
-                            Settings.System.putString(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT, "EEE");
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_DATE_STYLE, 0);
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_DATE_SIZE_SMALL, 0);
-                            getOwner().refreshSettings();
+                            getOwner().mStore.beginTransaction()
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_DATE_POSITION, 0)
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_SHOW_SECONDS, 0)
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_SHOW_DATE, 0)
+                                    .putString(Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT,
+                                            "EEE")
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_DATE_STYLE, 0)
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_DATE_SIZE_SMALL, 0)
+                                    .apply();
                         }
                     })
                     .setPositiveButton(R.string.dlg_reset_hazard,
                             new DialogInterface.OnClickListener() {
                         public void onClick(DialogInterface dialog, int which) {
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_DATE_POSITION, 1);
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_SHOW_SECONDS, 0);
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_SHOW_DATE, 1);
-                            Settings.System.putString(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT, "EEE");
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_DATE_STYLE, 0);
-                            Settings.System.putInt(getOwner().mResolver,
-                                    Settings.System.STATUS_BAR_CLOCK_DATE_SIZE_SMALL, 0);
-                            getOwner().refreshSettings();
+                            getOwner().mStore.beginTransaction()
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_DATE_POSITION, 1)
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_SHOW_SECONDS, 0)
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_SHOW_DATE, 1)
+                                    .putString(Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT,
+                                            "EEE")
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_DATE_STYLE, 0)
+                                    .putInt(Settings.System.STATUS_BAR_CLOCK_DATE_SIZE_SMALL, 0)
+                                    .apply();
                         }
                     })
                     .create();
@@ -32,6 +32,13 @@ import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 
+import com.toxyc.hazard.preference.SettingsLoader;
+import com.toxyc.hazard.preference.SettingsPrefetcher;
+import com.toxyc.hazard.preference.SettingsSchema;
+import com.toxyc.hazard.preference.SettingsStore;
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+import com.toxyc.hazard.preference.SystemSettingsStore;
+
 import com.android.internal.logging.nano.MetricsProto;
 
 public class LockscreenSettings extends SettingsPreferenceFragment implements Preference.OnPreferenceChangeListener {
@@ -42,44 +49,70 @@ public class LockscreenSettings extends SettingsPreferenceFragment implements Pr
     private ListPreference mLockscreenClockSelection;
     private ListPreference mLockscreenDateSelection;
 
+    private SettingsStore mStore;
+
+    private SettingsLoader mLoader;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         addPreferencesFromResource(R.xml.lockscreen_settings);
 
-        ContentResolver resolver = getActivity().getContentResolver();
-        final PreferenceScreen prefScreen = getPreferenceScreen();
+        mStore = new SystemSettingsStore(getActivity().getContentResolver());
 
+        // Last known values until the real ones are loaded
         mLockscreenClockSelection = (ListPreference) findPreference(KEY_LOCKSCREEN_CLOCK_SELECTION);
-        int clockSelection = Settings.System.getIntForUser(resolver,
-                Settings.System.LOCKSCREEN_CLOCK_SELECTION, 0, UserHandle.USER_CURRENT);
-        mLockscreenClockSelection.setValue(String.valueOf(clockSelection));
         mLockscreenClockSelection.setSummary(mLockscreenClockSelection.getEntry());
         mLockscreenClockSelection.setOnPreferenceChangeListener(this);
-
         mLockscreenDateSelection = (ListPreference) findPreference(KEY_LOCKSCREEN_DATE_SELECTION);
-        int dateSelection = Settings.System.getIntForUser(resolver,
-                Settings.System.LOCKSCREEN_DATE_SELECTION, 0, UserHandle.USER_CURRENT);
-        mLockscreenDateSelection.setValue(String.valueOf(dateSelection));
         mLockscreenDateSelection.setSummary(mLockscreenDateSelection.getEntry());
         mLockscreenDateSelection.setOnPreferenceChangeListener(this);
+
+        mLoader = new SettingsLoader(new SettingsPrefetcher(getActivity())
+                .addScreen(R.xml.lockscreen_settings)
+                .add(Namespace.SYSTEM, UserHandle.USER_CURRENT,
+                        Settings.System.LOCKSCREEN_CLOCK_SELECTION,
+                        Settings.System.LOCKSCREEN_DATE_SELECTION));
+        mLoader.load(new SettingsLoader.OnLoadedListener() {
+            @Override
+            public void onSettingsLoaded() {
+                bindSettings();
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        mLoader.cancel();
+        super.onDestroy();
+    }
+
+    private void bindSettings() {
+        int clockSelection = mStore.getIntForUser(SettingsSchema.LOCKSCREEN_CLOCK_SELECTION,
+                UserHandle.USER_CURRENT);
+        mLockscreenClockSelection.setValue(String.valueOf(clockSelection));
+        mLockscreenClockSelection.setSummary(mLockscreenClockSelection.getEntry());
+
+        int dateSelection = mStore.getIntForUser(SettingsSchema.LOCKSCREEN_DATE_SELECTION,
+                UserHandle.USER_CURRENT);
+        mLockscreenDateSelection.setValue(String.valueOf(dateSelection));
+        mLockscreenDateSelection.setSummary(mLockscreenDateSelection.getEntry());
     }
 
     @Override
     public boolean onPreferenceChange(Preference preference, Object newValue) {
-        ContentResolver resolver = getActivity().getContentResolver();
         if (preference == mLockscreenClockSelection) {
             int clockSelection = Integer.valueOf((String) newValue);
             int index = mLockscreenClockSelection.findIndexOfValue((String) newValue);
-            Settings.System.putIntForUser(resolver,
-                    Settings.System.LOCKSCREEN_CLOCK_SELECTION, clockSelection, UserHandle.USER_CURRENT);
+            mStore.putIntForUser(Settings.System.LOCKSCREEN_CLOCK_SELECTION, clockSelection,
+                    UserHandle.USER_CURRENT);
             mLockscreenClockSelection.setSummary(mLockscreenClockSelection.getEntries()[index]);
             return true;
         } else if (preference == mLockscreenDateSelection) {
             int dateSelection = Integer.valueOf((String) newValue);
             int index = mLockscreenDateSelection.findIndexOfValue((String) newValue);
-            Settings.System.putIntForUser(resolver,
-                    Settings.System.LOCKSCREEN_DATE_SELECTION, dateSelection, UserHandle.USER_CURRENT);
+            mStore.putIntForUser(Settings.System.LOCKSCREEN_DATE_SELECTION, dateSelection,
+                    UserHandle.USER_CURRENT);
             mLockscreenDateSelection.setSummary(mLockscreenDateSelection.getEntries()[index]);
             return true;
         }
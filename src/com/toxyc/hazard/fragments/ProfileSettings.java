@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.fragments;
+
+import android.app.Activity;
+import android.app.AlertDialog;
+import android.content.Context;
+import android.content.DialogInterface;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceCategory;
+import android.text.TextUtils;
+import android.util.Log;
+import android.widget.EditText;
+import android.widget.Toast;
+
+import com.android.internal.logging.nano.MetricsProto;
+import com.android.settings.R;
+import com.android.settings.SettingsPreferenceFragment;
+
+import com.toxyc.hazard.preference.SettingsBackup;
+import com.toxyc.hazard.preference.SettingsProfiles;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
+public class ProfileSettings extends SettingsPreferenceFragment {
+    private static final String TAG = "ProfileSettings";
+
+    private static final String KEY_SAVE_PROFILE = "save_profile";
+    private static final String KEY_PROFILES = "profiles_category";
+    private static final String KEY_EXPORT = "export_settings";
+    private static final String KEY_IMPORT = "import_settings";
+
+    private static final int REQUEST_EXPORT = 1;
+    private static final int REQUEST_IMPORT = 2;
+    private static final String BACKUP_MIME_TYPE = "application/octet-stream";
+    private static final String BACKUP_FILE_NAME = "hazard-settings.backup";
+
+    // Backups and profiles are read and written one at a time, off the main thread
+    private static final Executor sExecutor = Executors.newSingleThreadExecutor();
+
+    private PreferenceCategory mProfiles;
+
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        addPreferencesFromResource(R.xml.profile_settings);
+
+        mProfiles = (PreferenceCategory) findPreference(KEY_PROFILES);
+        findPreference(KEY_SAVE_PROFILE).setOnPreferenceClickListener(
+                new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                showSaveDialog();
+                return true;
+            }
+        });
+        findPreference(KEY_EXPORT).setOnPreferenceClickListener(
+                new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                startActivityForResult(new Intent(Intent.ACTION_CREATE_DOCUMENT)
+                        .addCategory(Intent.CATEGORY_OPENABLE)
+                        .setType(BACKUP_MIME_TYPE)
+                        .putExtra(Intent.EXTRA_TITLE, BACKUP_FILE_NAME), REQUEST_EXPORT);
+                return true;
+            }
+        });
+        findPreference(KEY_IMPORT).setOnPreferenceClickListener(
+                new Preference.OnPreferenceClickListener() {
+            @Override
+            public boolean onPreferenceClick(Preference preference) {
+                // Backups shared through other apps may come with any type
+                startActivityForResult(new Intent(Intent.ACTION_OPEN_DOCUMENT)
+                        .addCategory(Intent.CATEGORY_OPENABLE)
+                        .setType("*/*"), REQUEST_IMPORT);
+                return true;
+            }
+        });
+        refreshProfiles();
+    }
+
+    @Override
+    public void onActivityResult(int requestCode, int resultCode, Intent data) {
+        super.onActivityResult(requestCode, resultCode, data);
+        if (resultCode != Activity.RESULT_OK || data == null || data.getData() == null) {
+            return;
+        }
+        if (requestCode == REQUEST_EXPORT) {
+            exportSettings(data.getData());
+        } else if (requestCode == REQUEST_IMPORT) {
+            importSettings(data.getData());
+        }
+    }
+
+    private void exportSettings(final Uri uri) {
+        new BackgroundTask(R.string.settings_export_failed) {
+            @Override
+            String run(Context context) throws IOException {
+                final OutputStream out = context.getContentResolver().openOutputStream(uri);
+                if (out == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                try {
+                    final int written = SettingsBackup.write(context, out);
+                    return context.getResources().getQuantityString(
+                            R.plurals.settings_exported, written, written);
+                } finally {
+                    out.close();
+                }
+            }
+        }.executeOnExecutor(sExecutor);
+    }
+
+    private void importSettings(final Uri uri) {
+        new BackgroundTask(R.string.settings_import_failed) {
+            @Override
+            String run(Context context) throws IOException {
+                final InputStream in = context.getContentResolver().openInputStream(uri);
+                if (in == null) {
+                    throw new IOException("Cannot open " + uri);
+                }
+                try {
+                    final int changed = SettingsBackup.read(context, in);
+                    return context.getResources().getQuantityString(
+                            R.plurals.settings_imported, changed, changed);
+                } finally {
+                    in.close();
+                }
+            }
+        }.executeOnExecutor(sExecutor);
+    }
+
+    private void refreshProfiles() {
+        mProfiles.removeAll();
+        for (final String name : SettingsProfiles.getNames(getActivity())) {
+            Preference profile = new Preference(getPrefContext());
+            profile.setTitle(name);
+            profile.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
+                @Override
+                public boolean onPreferenceClick(Preference preference) {
+                    showProfileDialog(name);
+                    return true;
+                }
+            });
+            mProfiles.addPreference(profile);
+        }
+    }
+
+    private void showSaveDialog() {
+        final EditText input = new EditText(getActivity());
+        new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.profile_save_title)
+                .setView(input)
+                .setNegativeButton(R.string.dlg_cancel, null)
+                .setPositiveButton(R.string.dlg_ok, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        final String name = input.getText().toString().trim();
+                        if (TextUtils.isEmpty(name)) {
+                            return;
+                        }
+                        new BackgroundTask(R.string.profile_save_failed) {
+                            @Override
+                            String run(Context context) throws IOException {
+                                SettingsProfiles.save(context, name);
+                                return null;
+                            }
+                        }.executeOnExecutor(sExecutor);
+                    }
+                })
+                .show();
+    }
+
+    private void showProfileDialog(final String name) {
+        new AlertDialog.Builder(getActivity())
+                .setTitle(name)
+                .setNegativeButton(R.string.dlg_cancel, null)
+                .setNeutralButton(R.string.profile_delete, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        new BackgroundTask(R.string.profile_delete_failed) {
+                            @Override
+                            String run(Context context) throws IOException {
+                                if (!SettingsProfiles.delete(context, name)) {
+                                    throw new IOException("Failed to delete profile " + name);
+                                }
+                                return null;
+                            }
+                        }.executeOnExecutor(sExecutor);
+                    }
+                })
+                .setPositiveButton(R.string.profile_apply, new DialogInterface.OnClickListener() {
+                    public void onClick(DialogInterface dialog, int which) {
+                        applyProfile(name);
+                    }
+                })
+                .show();
+    }
+
+    private void applyProfile(final String name) {
+        new BackgroundTask(R.string.profile_apply_failed) {
+            @Override
+            String run(Context context) throws IOException {
+                final int changed = SettingsProfiles.apply(context, name);
+                return context.getResources().getQuantityString(R.plurals.profile_applied,
+                        changed, changed);
+            }
+        }.executeOnExecutor(sExecutor);
+    }
+
+    /**
+     * Runs on {@link #sExecutor} with the application context, then shows the
+     * returned message, or the failure message if it threw.
+     */
+    private abstract class BackgroundTask extends AsyncTask<Void, Void, String> {
+        private final Context mAppContext = getActivity().getApplicationContext();
+        private final int mFailedResId;
+
+        BackgroundTask(int failedResId) {
+            mFailedResId = failedResId;
+        }
+
+        abstract String run(Context context) throws IOException;
+
+        @Override
+        protected String doInBackground(Void... params) {
+            try {
+                return run(mAppContext);
+            } catch (IOException e) {
+                Log.w(TAG, "Background task failed", e);
+                return mAppContext.getString(mFailedResId);
+            }
+        }
+
+        @Override
+        protected void onPostExecute(String message) {
+            if (message != null) {
+                Toast.makeText(mAppContext, message, Toast.LENGTH_SHORT).show();
+            }
+            if (isAdded()) {
+                refreshProfiles();
+            }
+        }
+    }
+
+    @Override
+    public int getMetricsCategory() {
+        return MetricsProto.MetricsEvent.HAZARD;
+    }
+}
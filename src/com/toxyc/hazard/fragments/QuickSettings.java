@@ -16,14 +16,19 @@
 
 package com.toxyc.hazard.fragments;
 
-import android.content.ContentResolver;
 import android.content.res.Resources;
 import android.os.Bundle;
 import android.os.UserHandle;
 import android.support.v7.preference.Preference;
-import android.provider.Settings;
 
 import com.toxyc.hazard.preference.CustomSeekBarPreference;
+import com.toxyc.hazard.preference.PrecompiledScreens;
+import com.toxyc.hazard.preference.SettingsLoader;
+import com.toxyc.hazard.preference.SettingsPrefetcher;
+import com.toxyc.hazard.preference.SettingsSchema;
+import com.toxyc.hazard.preference.SettingsStore;
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+import com.toxyc.hazard.preference.SystemSettingsStore;
 import com.android.internal.logging.nano.MetricsProto;
 
 import com.android.settings.R;
@@ -37,35 +42,56 @@ public class QuickSettings extends SettingsPreferenceFragment implements
     private CustomSeekBarPreference mQsColumnsPort;
     private CustomSeekBarPreference mQsColumnsLand;
 
+    private SettingsStore mStore;
+
+    private SettingsLoader mLoader;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        addPreferencesFromResource(R.xml.quick_settings);
-        final ContentResolver resolver = getActivity().getContentResolver();
-
-        int value = Settings.System.getIntForUser(resolver,
-                Settings.System.QS_ROWS_PORTRAIT, 3, UserHandle.USER_CURRENT);
-        mQsRowsPort = (CustomSeekBarPreference) findPreference("qs_rows_portrait");
-        mQsRowsPort.setValue(value);
-        mQsRowsPort.setOnPreferenceChangeListener(this);
-
-        value = Settings.System.getIntForUser(resolver,
-                Settings.System.QS_ROWS_LANDSCAPE, 2, UserHandle.USER_CURRENT);
-        mQsRowsLand = (CustomSeekBarPreference) findPreference("qs_rows_landscape");
-        mQsRowsLand.setValue(value);
-        mQsRowsLand.setOnPreferenceChangeListener(this);
-
-        value = Settings.System.getIntForUser(resolver,
-                Settings.System.QS_COLUMNS_PORTRAIT, 5, UserHandle.USER_CURRENT);
-        mQsColumnsPort = (CustomSeekBarPreference) findPreference("qs_columns_portrait");
-        mQsColumnsPort.setValue(value);
-        mQsColumnsPort.setOnPreferenceChangeListener(this);
-
-        value = Settings.System.getIntForUser(resolver,
-                Settings.System.QS_COLUMNS_LANDSCAPE, 5, UserHandle.USER_CURRENT);
-        mQsColumnsLand = (CustomSeekBarPreference) findPreference("qs_columns_landscape");
-        mQsColumnsLand.setValue(value);
-        mQsColumnsLand.setOnPreferenceChangeListener(this);
+        setPreferenceScreen(PrecompiledScreens.inflate(getPreferenceManager(),
+                R.xml.quick_settings));
+        mStore = new SystemSettingsStore(getActivity().getContentResolver());
+
+        // The seek bars show their last persisted values until these are loaded
+        mQsRowsPort = findSeekBar(SettingsSchema.QS_ROWS_PORTRAIT);
+        mQsRowsLand = findSeekBar(SettingsSchema.QS_ROWS_LANDSCAPE);
+        mQsColumnsPort = findSeekBar(SettingsSchema.QS_COLUMNS_PORTRAIT);
+        mQsColumnsLand = findSeekBar(SettingsSchema.QS_COLUMNS_LANDSCAPE);
+
+        mLoader = new SettingsLoader(new SettingsPrefetcher(getActivity())
+                .addScreen(R.xml.quick_settings)
+                .add(Namespace.SYSTEM, UserHandle.USER_CURRENT,
+                        SettingsSchema.QS_ROWS_PORTRAIT.name,
+                        SettingsSchema.QS_ROWS_LANDSCAPE.name,
+                        SettingsSchema.QS_COLUMNS_PORTRAIT.name,
+                        SettingsSchema.QS_COLUMNS_LANDSCAPE.name));
+        mLoader.load(new SettingsLoader.OnLoadedListener() {
+            @Override
+            public void onSettingsLoaded() {
+                bindSeekBar(mQsRowsPort, SettingsSchema.QS_ROWS_PORTRAIT);
+                bindSeekBar(mQsRowsLand, SettingsSchema.QS_ROWS_LANDSCAPE);
+                bindSeekBar(mQsColumnsPort, SettingsSchema.QS_COLUMNS_PORTRAIT);
+                bindSeekBar(mQsColumnsLand, SettingsSchema.QS_COLUMNS_LANDSCAPE);
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        mLoader.cancel();
+        super.onDestroy();
+    }
+
+    private CustomSeekBarPreference findSeekBar(SettingsSchema.Key key) {
+        CustomSeekBarPreference pref =
+                (CustomSeekBarPreference) findPreference(key.preferenceKey);
+        pref.setOnPreferenceChangeListener(this);
+        return pref;
+    }
+
+    private void bindSeekBar(CustomSeekBarPreference pref, SettingsSchema.Key key) {
+        pref.setValue(mStore.getIntForUser(key, UserHandle.USER_CURRENT));
     }
 
     @Override
@@ -74,26 +100,25 @@ public class QuickSettings extends SettingsPreferenceFragment implements
     }
 
     public boolean onPreferenceChange(Preference preference, Object newValue) {
-        final ContentResolver resolver = getActivity().getContentResolver();
         if (preference == mQsRowsPort) {
             int val = (Integer) newValue;
-            Settings.System.putIntForUser(getContentResolver(),
-                    Settings.System.QS_ROWS_PORTRAIT, val, UserHandle.USER_CURRENT);
+            mStore.putIntForUser(SettingsSchema.QS_ROWS_PORTRAIT.name, val,
+                    UserHandle.USER_CURRENT);
             return true;
         } else if (preference == mQsRowsLand) {
             int val = (Integer) newValue;
-            Settings.System.putIntForUser(getContentResolver(),
-                    Settings.System.QS_ROWS_LANDSCAPE, val, UserHandle.USER_CURRENT);
+            mStore.putIntForUser(SettingsSchema.QS_ROWS_LANDSCAPE.name, val,
+                    UserHandle.USER_CURRENT);
             return true;
         } else if (preference == mQsColumnsPort) {
             int val = (Integer) newValue;
-            Settings.System.putIntForUser(getContentResolver(),
-                    Settings.System.QS_COLUMNS_PORTRAIT, val, UserHandle.USER_CURRENT);
+            mStore.putIntForUser(SettingsSchema.QS_COLUMNS_PORTRAIT.name, val,
+                    UserHandle.USER_CURRENT);
             return true;
         } else if (preference == mQsColumnsLand) {
             int val = (Integer) newValue;
-            Settings.System.putIntForUser(getContentResolver(),
-                    Settings.System.QS_COLUMNS_LANDSCAPE, val, UserHandle.USER_CURRENT);
+            mStore.putIntForUser(SettingsSchema.QS_COLUMNS_LANDSCAPE.name, val,
+                    UserHandle.USER_CURRENT);
             return true;
         }
         return false;
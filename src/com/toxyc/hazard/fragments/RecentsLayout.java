@@ -40,6 +40,9 @@ import java.util.HashSet;
 
 import com.android.settings.SettingsPreferenceFragment;
 
+import com.toxyc.hazard.preference.SettingsSchema;
+import com.toxyc.hazard.preference.SettingsStore;
+import com.toxyc.hazard.preference.SystemSettingsStore;
 import com.toxyc.hazard.utils.DeviceUtils;
 
 public class RecentsLayout extends SettingsPreferenceFragment implements
@@ -49,19 +52,21 @@ public class RecentsLayout extends SettingsPreferenceFragment implements
     private ListPreference mRecentsType;
     private static final String RECENTS_TYPE = "recents_layout_style";
 
+    private SettingsStore mStore;
+
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
         addPreferencesFromResource(R.xml.recents_layout);
 
-        ContentResolver resolver = getActivity().getContentResolver();
+        mStore = new SystemSettingsStore(getActivity().getContentResolver());
         final PreferenceScreen prefSet = getPreferenceScreen();
 
         // recents type
         mRecentsType = (ListPreference) findPreference(RECENTS_TYPE);
-        int style = Settings.System.getIntForUser(resolver,
-                Settings.System.RECENTS_LAYOUT_STYLE, 0, UserHandle.USER_CURRENT);
+        int style = mStore.getIntForUser(SettingsSchema.RECENTS_LAYOUT_STYLE,
+                UserHandle.USER_CURRENT);
         mRecentsType.setValue(String.valueOf(style));
         mRecentsType.setSummary(mRecentsType.getEntry());
         mRecentsType.setOnPreferenceChangeListener(this);
@@ -73,8 +78,9 @@ public class RecentsLayout extends SettingsPreferenceFragment implements
         if (preference == mRecentsType) {
             int style = Integer.valueOf((String) objValue);
             int index = mRecentsType.findIndexOfValue((String) objValue);
-            Settings.System.putIntForUser(getActivity().getContentResolver(),
-                    Settings.System.RECENTS_LAYOUT_STYLE, style, UserHandle.USER_CURRENT);
+            // SystemUI is restarted right away, so this can't wait in the queue
+            mStore.putNow(Settings.System.RECENTS_LAYOUT_STYLE, String.valueOf(style),
+                    UserHandle.USER_CURRENT);
             mRecentsType.setSummary(mRecentsType.getEntries()[index]);
             DeviceUtils.restartSystemUi(getContext());
         return true;
@@ -40,6 +40,13 @@ import java.util.HashSet;
 
 import com.android.settings.SettingsPreferenceFragment;
 
+import com.toxyc.hazard.preference.SettingsLoader;
+import com.toxyc.hazard.preference.SettingsPrefetcher;
+import com.toxyc.hazard.preference.SettingsSchema;
+import com.toxyc.hazard.preference.SettingsStore;
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+import com.toxyc.hazard.preference.SystemSettingsStore;
+
 public class RecentsSettings extends SettingsPreferenceFragment implements
         OnPreferenceChangeListener {
 
@@ -48,23 +55,42 @@ public class RecentsSettings extends SettingsPreferenceFragment implements
     private ListPreference mRecentsClearAllLocation;
     private SwitchPreference mRecentsClearAll;
 
+    private SettingsStore mStore;
+
+    private SettingsLoader mLoader;
+
     @Override
     public void onCreate(Bundle icicle) {
         super.onCreate(icicle);
 
         addPreferencesFromResource(R.xml.recents_settings);
 
-        ContentResolver resolver = getActivity().getContentResolver();
-        final PreferenceScreen prefSet = getPreferenceScreen();
+        mStore = new SystemSettingsStore(getActivity().getContentResolver());
 
-        // clear all recents
+        // clear all recents, last known value until the real one is loaded
         mRecentsClearAllLocation = (ListPreference) findPreference(RECENTS_CLEAR_ALL_LOCATION);
-        int location = Settings.System.getIntForUser(resolver,
-                Settings.System.RECENTS_CLEAR_ALL_LOCATION, 5, UserHandle.USER_CURRENT);
-        mRecentsClearAllLocation.setValue(String.valueOf(location));
         mRecentsClearAllLocation.setSummary(mRecentsClearAllLocation.getEntry());
         mRecentsClearAllLocation.setOnPreferenceChangeListener(this);
 
+        mLoader = new SettingsLoader(new SettingsPrefetcher(getActivity())
+                .addScreen(R.xml.recents_settings)
+                .add(Namespace.SYSTEM, UserHandle.USER_CURRENT,
+                        Settings.System.RECENTS_CLEAR_ALL_LOCATION));
+        mLoader.load(new SettingsLoader.OnLoadedListener() {
+            @Override
+            public void onSettingsLoaded() {
+                int location = mStore.getIntForUser(SettingsSchema.RECENTS_CLEAR_ALL_LOCATION,
+                        UserHandle.USER_CURRENT);
+                mRecentsClearAllLocation.setValue(String.valueOf(location));
+                mRecentsClearAllLocation.setSummary(mRecentsClearAllLocation.getEntry());
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        mLoader.cancel();
+        super.onDestroy();
     }
 
     @Override
@@ -72,8 +98,8 @@ public class RecentsSettings extends SettingsPreferenceFragment implements
         if (preference == mRecentsClearAllLocation) {
             int location = Integer.valueOf((String) objValue);
             int index = mRecentsClearAllLocation.findIndexOfValue((String) objValue);
-            Settings.System.putIntForUser(getActivity().getContentResolver(),
-                    Settings.System.RECENTS_CLEAR_ALL_LOCATION, location, UserHandle.USER_CURRENT);
+            mStore.putIntForUser(Settings.System.RECENTS_CLEAR_ALL_LOCATION, location,
+                    UserHandle.USER_CURRENT);
             mRecentsClearAllLocation.setSummary(mRecentsClearAllLocation.getEntries()[index]);
         return true;
         }
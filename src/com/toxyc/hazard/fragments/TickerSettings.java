@@ -32,24 +32,53 @@ import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 
+import com.toxyc.hazard.preference.SettingsLoader;
+import com.toxyc.hazard.preference.SettingsPrefetcher;
+import com.toxyc.hazard.preference.SettingsSchema;
+import com.toxyc.hazard.preference.SettingsStore;
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+import com.toxyc.hazard.preference.SystemSettingsStore;
+
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
 
 public class TickerSettings extends SettingsPreferenceFragment implements Preference.OnPreferenceChangeListener {
 
     private ListPreference mTickerMode;
 
+    private SettingsStore mStore;
+
+    private SettingsLoader mLoader;
+
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         addPreferencesFromResource(R.xml.ticker_settings);
+        mStore = new SystemSettingsStore(getContentResolver());
 
+        // Last known value until the real one is loaded
         mTickerMode = (ListPreference) findPreference("ticker_mode");
         mTickerMode.setOnPreferenceChangeListener(this);
-        int tickerMode = Settings.System.getIntForUser(getContentResolver(),
-                Settings.System.STATUS_BAR_SHOW_TICKER,
-                1, UserHandle.USER_CURRENT);
-        mTickerMode.setValue(String.valueOf(tickerMode));
         mTickerMode.setSummary(mTickerMode.getEntry());
+
+        mLoader = new SettingsLoader(new SettingsPrefetcher(getActivity())
+                .addScreen(R.xml.ticker_settings)
+                .add(Namespace.SYSTEM, UserHandle.USER_CURRENT,
+                        Settings.System.STATUS_BAR_SHOW_TICKER));
+        mLoader.load(new SettingsLoader.OnLoadedListener() {
+            @Override
+            public void onSettingsLoaded() {
+                int tickerMode = mStore.getIntForUser(SettingsSchema.STATUS_BAR_SHOW_TICKER,
+                        UserHandle.USER_CURRENT);
+                mTickerMode.setValue(String.valueOf(tickerMode));
+                mTickerMode.setSummary(mTickerMode.getEntry());
+            }
+        });
+    }
+
+    @Override
+    public void onDestroy() {
+        mLoader.cancel();
+        super.onDestroy();
     }
 
     @Override
@@ -57,8 +86,8 @@ public class TickerSettings extends SettingsPreferenceFragment implements Prefer
         ContentResolver resolver = getActivity().getContentResolver();
         if (preference.equals(mTickerMode)) {
             int tickerMode = Integer.parseInt(((String) newValue).toString());
-            Settings.System.putIntForUser(getContentResolver(),
-                    Settings.System.STATUS_BAR_SHOW_TICKER, tickerMode, UserHandle.USER_CURRENT);
+            mStore.putIntForUser(Settings.System.STATUS_BAR_SHOW_TICKER, tickerMode,
+                    UserHandle.USER_CURRENT);
             int index = mTickerMode.findIndexOfValue((String) newValue);
             mTickerMode.setSummary(
                     mTickerMode.getEntries()[index]);
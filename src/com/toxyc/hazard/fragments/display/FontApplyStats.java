@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.fragments.display;
+
+import com.toxyc.hazard.preference.LatencyHistogram;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency and outcomes of font changes started from the font picker, for the
+ * settings dump. The service call is timed on its own, the whole apply from
+ * click to the font changed broadcast.
+ */
+public final class FontApplyStats {
+
+    private static final LatencyHistogram sServiceCall = new LatencyHistogram();
+    private static final LatencyHistogram sEndToEnd = new LatencyHistogram();
+    private static final AtomicInteger sFailures = new AtomicInteger();
+    private static final AtomicInteger sTimeouts = new AtomicInteger();
+    private static final AtomicInteger sCancels = new AtomicInteger();
+
+    private FontApplyStats() {
+    }
+
+    static void recordServiceCall(long nanos) {
+        sServiceCall.record(nanos);
+    }
+
+    static void recordApplied(long nanos) {
+        sEndToEnd.record(nanos);
+    }
+
+    static void recordFailure() {
+        sFailures.incrementAndGet();
+    }
+
+    static void recordTimeout() {
+        sTimeouts.incrementAndGet();
+    }
+
+    static void recordCancel() {
+        sCancels.incrementAndGet();
+    }
+
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Font apply latency:");
+        writer.print(prefix);
+        writer.println("  service call: " + sServiceCall);
+        writer.print(prefix);
+        writer.println("  click to broadcast: " + sEndToEnd);
+        writer.print(prefix);
+        writer.println("  " + sFailures.get() + " failed, " + sTimeouts.get() + " timed out, "
+                + sCancels.get() + " cancelled");
+    }
+}
@@ -23,18 +23,45 @@ import android.content.Context;
 import android.content.DialogInterface;
 import android.content.FontInfo;
 import android.content.IFontService;
+import android.os.AsyncTask;
+import android.os.Handler;
 import android.os.RemoteException;
 import android.os.ServiceManager;
+import android.os.SystemClock;
 import android.util.AttributeSet;
+import android.util.Log;
+import android.widget.Toast;
 
 import com.android.settingslib.CustomDialogPreference;
 import com.android.settings.R;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+
 public class FontDialogPreference extends CustomDialogPreference {
     private static final String TAG = "FontDialogPreference";
+    // Serial, so two quick picks reach the service in order, without
+    // holding up every other AsyncTask.execute() in the process
+    private static final Executor sApplyExecutor = Executors.newSingleThreadExecutor();
     private Context mContext;
     private IFontService mFontService;
     private ProgressDialog mProgressDialog;
+    private FontListAdapter mAdapter;
+    private final Handler mHandler = new Handler();
+    // Font change in flight, zero when none
+    private long mApplyStartNanos;
+    // Bumped by every apply, so results of an abandoned one are ignored
+    private int mApplyId;
+
+    private final Runnable mApplyTimeout = new Runnable() {
+        @Override
+        public void run() {
+            Log.w(TAG, "No font change after "
+                    + (SystemClock.elapsedRealtimeNanos() - mApplyStartNanos) / 1000000 + " ms");
+            FontApplyStats.recordTimeout();
+            finishApply(R.string.font_picker_timeout);
+        }
+    };
 
     public FontDialogPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -47,17 +74,17 @@ public class FontDialogPreference extends CustomDialogPreference {
     protected void onPrepareDialogBuilder(Builder builder,
             DialogInterface.OnClickListener listener) {
         super.onPrepareDialogBuilder(builder, listener);
-        FontListAdapter adapter = new FontListAdapter(mContext);
+        if (mAdapter == null) {
+            mAdapter = new FontListAdapter(mContext);
+        }
+        final FontListAdapter adapter = mAdapter;
+        // Kept between dialogs, so only fonts installed or removed since the
+        // last open are added or dropped
+        adapter.loadFontList();
         DialogInterface.OnClickListener l = new DialogInterface.OnClickListener() {
             @Override
             public void onClick(DialogInterface dialog, int which) {
-                FontInfo info = adapter.getItem(which);
-                try {
-                    startProgress();
-                    mFontService.applyFont(info);
-                } catch (RemoteException e) {
-                    stopProgress();
-                }
+                applyFont(adapter.getItem(which));
             }
         };
         builder.setIcon(R.drawable.font_dialog_icon);
@@ -67,6 +94,14 @@ public class FontDialogPreference extends CustomDialogPreference {
                 listener);
     }
 
+    @Override
+    protected void onDialogClosed(boolean positiveResult) {
+        super.onDialogClosed(positiveResult);
+        if (mAdapter != null) {
+            mAdapter.cancelLoading();
+        }
+    }
+
     @Override
     protected void onClick(DialogInterface dialog, int which) {
         if (which == DialogInterface.BUTTON_NEGATIVE) {
@@ -74,6 +109,63 @@ public class FontDialogPreference extends CustomDialogPreference {
         }
     }
 
+    /**
+     * Asks the font service for the font off the main thread, then waits for
+     * the font changed broadcast, at most config_hazard_font_apply_timeout_ms.
+     */
+    private void applyFont(final FontInfo info) {
+        stopProgress();
+        final int applyId = ++mApplyId;
+        mApplyStartNanos = SystemClock.elapsedRealtimeNanos();
+        startProgress();
+        mHandler.postDelayed(mApplyTimeout, mContext.getResources().getInteger(
+                R.integer.config_hazard_font_apply_timeout_ms));
+        new AsyncTask<Void, Void, Boolean>() {
+            @Override
+            protected Boolean doInBackground(Void... params) {
+                final long start = SystemClock.elapsedRealtimeNanos();
+                try {
+                    mFontService.applyFont(info);
+                    return true;
+                } catch (RemoteException e) {
+                    Log.e(TAG, "Failed to apply " + info.fontName, e);
+                    return false;
+                } finally {
+                    FontApplyStats.recordServiceCall(SystemClock.elapsedRealtimeNanos() - start);
+                }
+            }
+
+            @Override
+            protected void onPostExecute(Boolean applied) {
+                if (applyId != mApplyId || mApplyStartNanos == 0) {
+                    return;
+                }
+                if (!applied) {
+                    FontApplyStats.recordFailure();
+                    finishApply(R.string.font_picker_failed);
+                } else if (mProgressDialog != null) {
+                    mProgressDialog.setMessage(
+                            mContext.getString(R.string.font_picker_progress_waiting));
+                }
+            }
+        }.executeOnExecutor(sApplyExecutor);
+    }
+
+    /**
+     * Called when the system reports the new font is in place.
+     */
+    public void onFontChanged() {
+        if (mApplyStartNanos != 0) {
+            FontApplyStats.recordApplied(SystemClock.elapsedRealtimeNanos() - mApplyStartNanos);
+        }
+        stopProgress();
+    }
+
+    private void finishApply(int messageResId) {
+        stopProgress();
+        Toast.makeText(mContext, messageResId, Toast.LENGTH_SHORT).show();
+    }
+
     private void startProgress() {
         if(mProgressDialog != null) {
             stopProgress();
@@ -84,10 +176,25 @@ public class FontDialogPreference extends CustomDialogPreference {
         mProgressDialog.setMessage(mContext.getString(R.string.font_picker_progress));
         mProgressDialog.setCancelable(false);
         mProgressDialog.setCanceledOnTouchOutside(false);
+        // Only stops waiting, the service may still switch fonts afterwards
+        mProgressDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                mContext.getString(com.android.internal.R.string.cancel),
+                new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        FontApplyStats.recordCancel();
+                        stopProgress();
+                    }
+                });
         mProgressDialog.show();
     }
 
+    /**
+     * Hides the progress and stops waiting for the font in flight, if any.
+     */
     public void stopProgress() {
+        mHandler.removeCallbacks(mApplyTimeout);
+        mApplyStartNanos = 0;
         if (mProgressDialog != null) {
             mProgressDialog.dismiss();
             mProgressDialog = null;
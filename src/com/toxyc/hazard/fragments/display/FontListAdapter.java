@@ -20,22 +20,32 @@ package com.toxyc.hazard.fragments.display;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 
 import com.android.settings.R;
+import com.toxyc.hazard.utils.PackageInfoCache;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.FontInfo;
 import android.content.IFontService;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
-import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.os.AsyncTask;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.text.TextUtils;
 import android.util.Log;
+import android.util.Pair;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -45,43 +55,247 @@ import android.widget.TextView;
 
 public class FontListAdapter extends BaseAdapter {
     private static final String TAG = "FontListAdapter";
+    // Meta-data font packs declare for the font service
+    private static final String FONT_PROVIDER_META_DATA = "custom_font_provider";
 
     private IFontService mFontService;
     private List<FontInfo> mFontInfo = new ArrayList<FontInfo>();
     private Context mContext;
     private LayoutInflater mInflater;
-    private PackageManager mPm;
+    private PackageInfoCache mPackages;
+    private FontPreviewCache mPreviews;
+    private LoadFontsTask mLoadTask;
+    private boolean mListening;
+    // Packages with rows in the list
+    private final HashSet<String> mPackageNames = new HashSet<String>();
+    // Row IDs by font, for the rows in the list
+    private final HashMap<String, Long> mIds = new HashMap<String, Long>();
+    private long mNextId;
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            // An update is also sent as removed and added, only follow replaced
+            if (data == null || intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)
+                    && !Intent.ACTION_PACKAGE_REPLACED.equals(intent.getAction())) {
+                return;
+            }
+            final String packageName = data.getSchemeSpecificPart();
+            final boolean listed = mPackageNames.contains(packageName);
+            if (!listed && Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())) {
+                // It had no rows to take out
+                return;
+            }
+            if (listed) {
+                // A replaced package may ship new files at the same paths
+                for (FontInfo row : mFontInfo) {
+                    if (row.packageName.equals(packageName)) {
+                        mPreviews.invalidate(row.previewPath);
+                    }
+                }
+            }
+            new LoadFontsTask(packageName, listed)
+                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    };
 
     public FontListAdapter(Context context) {
         mContext = context;
         mInflater = LayoutInflater.from(context);
         mFontService = IFontService.Stub.asInterface(
                 ServiceManager.getService("dufont"));
-        mPm = context.getPackageManager();
-        loadFontList();
+        mPackages = PackageInfoCache.getInstance(context);
+        mPreviews = FontPreviewCache.getInstance(context);
+        // The system font is always first, the rest comes in from loadFontList()
+        mFontInfo.add(FontInfo.getDefaultFontInfo());
     }
 
+    /**
+     * Fetches the installed fonts in the background and merges them into the
+     * list package by package, keeping it sorted. Rows of fonts still
+     * installed stay in place, so this can be called on every dialog open.
+     * Also follows package changes until {@link #cancelLoading()}.
+     */
     public void loadFontList() {
-        mFontInfo.clear();
-        try {
-            Map<String, List<FontInfo>> fontMap = mFontService.getAllFonts();
-            for (Map.Entry<String, List<FontInfo>> entry : fontMap.entrySet()) {
-                String packageName = entry.getKey();
-                List<FontInfo> fonts = entry.getValue();
-                // manually add system font after we sort
-                if (TextUtils.equals(packageName, FontInfo.DEFAULT_FONT_PACKAGE)) {
+        cancelLoading();
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mPackageReceiver, filter);
+        mListening = true;
+        mLoadTask = new LoadFontsTask(null, false);
+        mLoadTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Stops adding fonts, call this when the list is no longer shown.
+     */
+    public void cancelLoading() {
+        if (mLoadTask != null) {
+            mLoadTask.cancel(false);
+            mLoadTask = null;
+        }
+        if (mListening) {
+            mContext.unregisterReceiver(mPackageReceiver);
+            mListening = false;
+        }
+    }
+
+    /**
+     * Makes the rows of {@code packageName} match {@code fonts}, which must be
+     * sorted, inserting and removing only the fonts that differ. Returns
+     * whether any row changed.
+     */
+    private boolean updatePackage(String packageName, List<FontInfo> fonts) {
+        final HashMap<String, FontInfo> added = new HashMap<String, FontInfo>();
+        for (FontInfo font : fonts) {
+            added.put(getKey(font), font);
+        }
+        // The system font at 0 stays in place, the rest is sorted
+        final List<FontInfo> sorted = mFontInfo.subList(1, mFontInfo.size());
+        boolean changed = false;
+        if (mPackageNames.contains(packageName)) {
+            final ListIterator<FontInfo> rows = sorted.listIterator();
+            while (rows.hasNext()) {
+                final FontInfo row = rows.next();
+                if (!row.packageName.equals(packageName)) {
                     continue;
                 }
-                for (FontInfo font : fonts) {
-                    mFontInfo.add(new FontInfo(font));
+                final FontInfo font = added.remove(getKey(row));
+                if (font == null) {
+                    rows.remove();
+                    mIds.remove(getKey(row));
+                    changed = true;
+                } else if (!TextUtils.equals(font.previewPath, row.previewPath)) {
+                    // Same font and row ID, new file
+                    rows.set(font);
+                    changed = true;
+                }
+            }
+        }
+        for (FontInfo font : fonts) {
+            if (added.containsKey(getKey(font))) {
+                int index = Collections.binarySearch(sorted, font);
+                sorted.add(index < 0 ? -index - 1 : index, font);
+                changed = true;
+            }
+        }
+        if (fonts.isEmpty()) {
+            mPackageNames.remove(packageName);
+        } else {
+            mPackageNames.add(packageName);
+        }
+        return changed;
+    }
+
+    /**
+     * Drops the rows of packages that are no longer installed.
+     */
+    private boolean retainPackages(Set<String> packageNames) {
+        final ArrayList<String> removed = new ArrayList<String>();
+        for (String packageName : mPackageNames) {
+            if (!packageNames.contains(packageName)) {
+                removed.add(packageName);
+            }
+        }
+        boolean changed = false;
+        for (String packageName : removed) {
+            changed |= updatePackage(packageName, Collections.<FontInfo>emptyList());
+        }
+        return changed;
+    }
+
+    private static String getKey(FontInfo info) {
+        return info.packageName + '/' + info.fontName;
+    }
+
+    /**
+     * Reads the fonts of one package, or of all of them if the package name
+     * is null, and publishes them package by package. The service has no
+     * per-package query, so a single package is picked out of getAllFonts(),
+     * and only if it is listed already or declares fonts.
+     */
+    private class LoadFontsTask extends AsyncTask<Void, Pair<String, List<FontInfo>>, Set<String>> {
+        private final String mPackageName;
+        private final boolean mListed;
+
+        LoadFontsTask(String packageName, boolean listed) {
+            mPackageName = packageName;
+            mListed = listed;
+        }
+
+        @Override
+        protected Set<String> doInBackground(Void... params) {
+            if (mPackageName != null && !mListed && !declaresFonts(mPackageName)) {
+                return null;
+            }
+            Map<String, List<FontInfo>> fontMap;
+            try {
+                fontMap = mFontService.getAllFonts();
+            } catch (RemoteException e) {
+                Log.e(TAG, "Error in populating list");
+                return null;
+            }
+            if (mPackageName != null) {
+                final List<FontInfo> fonts = fontMap.get(mPackageName);
+                publish(mPackageName, fonts != null ? fonts : new ArrayList<FontInfo>());
+                return null;
+            }
+            for (Map.Entry<String, List<FontInfo>> entry : fontMap.entrySet()) {
+                if (isCancelled()) {
+                    return null;
                 }
+                publish(entry.getKey(), entry.getValue());
+            }
+            return fontMap.keySet();
+        }
+
+        private void publish(String packageName, List<FontInfo> fonts) {
+            // system font is already in the list
+            if (TextUtils.equals(packageName, FontInfo.DEFAULT_FONT_PACKAGE)) {
+                return;
+            }
+            // The service may hand out its own list, sort a copy
+            final List<FontInfo> sorted = new ArrayList<FontInfo>(fonts);
+            Collections.sort(sorted);
+            publishProgress(new Pair<String, List<FontInfo>>(packageName, sorted));
+        }
+
+        @Override
+        protected void onProgressUpdate(Pair<String, List<FontInfo>>... fonts) {
+            // Updates posted before cancel() still arrive
+            if (isCurrent() && updatePackage(fonts[0].first, fonts[0].second)) {
+                notifyDataSetChanged();
             }
-            Collections.sort(mFontInfo);
-        } catch (RemoteException e) {
-            Log.e(TAG, "Error in populating list");
         }
-        mFontInfo.add(0, FontInfo.getDefaultFontInfo());
-        notifyDataSetChanged();
+
+        @Override
+        protected void onPostExecute(Set<String> packageNames) {
+            if (mPackageName != null || mLoadTask != this) {
+                return;
+            }
+            mLoadTask = null;
+            if (packageNames != null && retainPackages(packageNames)) {
+                notifyDataSetChanged();
+            }
+        }
+
+        private boolean isCurrent() {
+            return mPackageName != null ? mListening : mLoadTask == this;
+        }
+    }
+
+    private boolean declaresFonts(String packageName) {
+        try {
+            final ApplicationInfo info = mContext.getPackageManager().getApplicationInfo(
+                    packageName, PackageManager.GET_META_DATA);
+            return info.metaData != null && info.metaData.containsKey(FONT_PROVIDER_META_DATA);
+        } catch (PackageManager.NameNotFoundException e) {
+            return false;
+        }
     }
 
     @Override
@@ -96,7 +310,18 @@ public class FontListAdapter extends BaseAdapter {
 
     @Override
     public long getItemId(int position) {
-        return 0;
+        final String key = getKey(mFontInfo.get(position));
+        Long id = mIds.get(key);
+        if (id == null) {
+            id = mNextId++;
+            mIds.put(key, id);
+        }
+        return id;
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
     }
 
     @Override
@@ -113,44 +338,33 @@ public class FontListAdapter extends BaseAdapter {
             holder.summary = (TextView) convertView
                     .findViewById(com.android.internal.R.id.summary);
             holder.icon = (ImageView) convertView.findViewById(R.id.icon);
+            holder.preview = (ImageView) convertView.findViewById(R.id.font_preview);
         }
         FontInfo info = getItem(position);
-        Typeface.Builder builder = new Typeface.Builder(info.previewPath);
-        Typeface tf = builder.build();
-        holder.title.setTypeface(tf);
         holder.title.setText(info.fontName.replace("_", " "));
-        holder.summary.setTypeface(tf);
+        // Drawn from a cached bitmap, the font file is only parsed the first time
+        mPreviews.bind(info.previewPath, holder.title, holder.preview);
         holder.summary.setText(getPackageLabel(info.packageName).replace("_", " "));
         holder.icon.setImageDrawable(getPackageDrawable(info.packageName));
         return convertView;
     }
 
     private String getPackageLabel(String packageName) {
-        String label = null;
         if (packageName.equals("android")) {
             return "Android";
         }
-        try {
-            ApplicationInfo info = mPm.getApplicationInfo(packageName, 0);
-            label = (String) info.loadLabel(mPm);
-        } finally {
-            return label;
-        }
+        String label = mPackages.getApplicationLabel(packageName);
+        return label != null ? label : packageName;
     }
 
     private Drawable getPackageDrawable(String packageName) {
-        Drawable icon = null;
-        try {
-            ApplicationInfo info = mPm.getApplicationInfo(packageName, 0);
-            icon = info.loadIcon(mPm);
-        } finally {
-            return icon;
-        }
+        return mPackages.getApplicationIcon(packageName);
     }
 
     private static class ViewHolder {
         TextView title;
         TextView summary;
         ImageView icon;
+        ImageView preview;
     }
 }
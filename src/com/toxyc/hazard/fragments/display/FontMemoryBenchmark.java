@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.fragments.display;
+
+import android.content.FontInfo;
+import android.content.IFontService;
+import android.graphics.Typeface;
+import android.os.Debug;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the memory held by the preview typefaces of every installed font,
+ * built the way {@link TypefaceCache} builds them, against the size of their
+ * files. A Java heap delta far below the file size shows the fonts are
+ * mapped rather than read into the heap. All typefaces are kept alive while
+ * sampling, each sample runs after a GC.
+ */
+public final class FontMemoryBenchmark {
+
+    private FontMemoryBenchmark() {
+    }
+
+    public static void run(PrintWriter writer) {
+        final IFontService service = IFontService.Stub.asInterface(
+                ServiceManager.getService("dufont"));
+        final ArrayList<String> paths = new ArrayList<String>();
+        long fileKb = 0;
+        try {
+            for (Map.Entry<String, List<FontInfo>> entry : service.getAllFonts().entrySet()) {
+                for (FontInfo font : entry.getValue()) {
+                    if (font.previewPath != null) {
+                        paths.add(font.previewPath);
+                        fileKb += new File(font.previewPath).length() / 1024;
+                    }
+                }
+            }
+        } catch (RemoteException e) {
+            writer.println("Font memory: font service unavailable");
+            return;
+        }
+        final long[] before = sample();
+        final ArrayList<Typeface> typefaces = new ArrayList<Typeface>(paths.size());
+        for (String path : paths) {
+            typefaces.add(new Typeface.Builder(path).build());
+        }
+        final long[] after = sample();
+        writer.println("Font preview memory, " + typefaces.size() + " fonts, "
+                + fileKb + " KiB of files:");
+        writer.println("  java heap +" + (after[0] - before[0]) + " KiB, native heap +"
+                + (after[1] - before[1]) + " KiB, PSS +" + (after[2] - before[2]) + " KiB");
+    }
+
+    private static long[] sample() {
+        final Runtime runtime = Runtime.getRuntime();
+        runtime.gc();
+        runtime.runFinalization();
+        runtime.gc();
+        return new long[] {
+            (runtime.totalMemory() - runtime.freeMemory()) / 1024,
+            Debug.getNativeHeapAllocatedSize() / 1024,
+            Debug.getPss()
+        };
+    }
+}
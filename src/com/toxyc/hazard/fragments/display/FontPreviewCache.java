@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.fragments.display;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.AsyncTask;
+import android.text.TextPaint;
+import android.text.TextUtils;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.View;
+import android.widget.ImageView;
+import android.widget.TextView;
+
+import com.android.settings.R;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * Font names drawn once in their own font into small bitmaps, so the font
+ * list never parses a font file to show a row. Bitmaps are kept in an
+ * on-disk cache keyed by font path, file time and text size, and decoded
+ * off the main thread into a memory LRU keyed without the file time, so a
+ * bind never touches the disk. Call {@link #invalidate} when a font may have
+ * been replaced.
+ *
+ * Text is drawn in white and tinted by the row, so one bitmap works in any
+ * theme.
+ */
+public final class FontPreviewCache {
+    private static final String TAG = "FontPreviewCache";
+
+    private static final String DIR_NAME = "font_previews";
+    private static final int MAX_DISK_FILES = 512;
+    // Widest preview, in text sizes, longer names are ellipsized
+    private static final int MAX_WIDTH_EMS = 16;
+
+    private static FontPreviewCache sInstance;
+
+    private final File mDir;
+    private final TypefaceCache mTypefaces;
+    private final LruCache<String, Bitmap> mBitmaps;
+    // Loads in flight and the views waiting on them, main thread only
+    private final HashMap<String, ArrayList<ImageView>> mPending =
+            new HashMap<String, ArrayList<ImageView>>();
+    private boolean mTrimmed;
+
+    private int mMemoryHits;
+    private int mDiskHits;
+    private int mRendered;
+
+    private FontPreviewCache(Context context) {
+        mDir = new File(context.getCacheDir(), DIR_NAME);
+        mTypefaces = TypefaceCache.getInstance(context);
+        mBitmaps = new LruCache<String, Bitmap>(context.getResources().getInteger(
+                R.integer.config_hazard_font_preview_cache_kb)) {
+            @Override
+            protected int sizeOf(String key, Bitmap bitmap) {
+                return Math.max(1, bitmap.getAllocationByteCount() / 1024);
+            }
+        };
+    }
+
+    public static synchronized FontPreviewCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new FontPreviewCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns null if the instance wasn't created yet, for dumping stats
+     * without a context.
+     */
+    public static synchronized FontPreviewCache peekInstance() {
+        return sInstance;
+    }
+
+    /**
+     * Shows the preview of {@code previewPath} in {@code preview} if it is
+     * ready, or {@code title} in the default font until it is. Must be called
+     * on the main thread, again each time the row is bound.
+     */
+    public void bind(String previewPath, TextView title, ImageView preview) {
+        final String text = title.getText().toString();
+        if (previewPath == null) {
+            preview.setTag(null);
+            showTitle(title, preview);
+            return;
+        }
+        final float textSize = title.getTextSize();
+        final String key = previewPath + '\u0000' + textSize + '\u0000' + text;
+        preview.setTag(key);
+        preview.setImageTintList(title.getTextColors());
+
+        final Bitmap bitmap = mBitmaps.get(key);
+        if (bitmap != null) {
+            mMemoryHits++;
+            showPreview(title, preview, bitmap);
+            return;
+        }
+        showTitle(title, preview);
+        ArrayList<ImageView> waiting = mPending.get(key);
+        if (waiting == null) {
+            waiting = new ArrayList<ImageView>();
+            mPending.put(key, waiting);
+            new LoadTask(key, previewPath, text, textSize)
+                    .executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        if (!waiting.contains(preview)) {
+            waiting.add(preview);
+        }
+    }
+
+    public void clear() {
+        mBitmaps.evictAll();
+    }
+
+    /**
+     * Drops the bitmaps and typeface of one font from memory. Disk entries
+     * stay, they are keyed by file time.
+     */
+    public void invalidate(String previewPath) {
+        if (previewPath == null) {
+            return;
+        }
+        final String prefix = previewPath + '\u0000';
+        for (String key : mBitmaps.snapshot().keySet()) {
+            if (key.startsWith(prefix)) {
+                mBitmaps.remove(key);
+            }
+        }
+        mTypefaces.remove(previewPath);
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Font preview bitmaps: " + mBitmaps.size() + "/"
+                + mBitmaps.maxSize() + " KiB, " + mMemoryHits + " memory hits, "
+                + mDiskHits + " disk hits, " + mRendered + " rendered");
+    }
+
+    private static void showTitle(TextView title, ImageView preview) {
+        preview.setImageDrawable(null);
+        preview.setVisibility(View.GONE);
+        title.setVisibility(View.VISIBLE);
+    }
+
+    private static void showPreview(TextView title, ImageView preview, Bitmap bitmap) {
+        preview.setImageBitmap(bitmap);
+        preview.setContentDescription(title.getText());
+        preview.setVisibility(View.VISIBLE);
+        title.setVisibility(View.GONE);
+    }
+
+    private class LoadTask extends AsyncTask<Void, Void, Bitmap> {
+        private final String mKey;
+        private final String mPreviewPath;
+        private final String mText;
+        private final float mTextSize;
+        private boolean mFromDisk;
+
+        LoadTask(String key, String previewPath, String text, float textSize) {
+            mKey = key;
+            mPreviewPath = previewPath;
+            mText = text;
+            mTextSize = textSize;
+        }
+
+        @Override
+        protected Bitmap doInBackground(Void... params) {
+            // Missing fonts keep showing the title
+            final File font = new File(mPreviewPath);
+            if (!font.isFile()) {
+                return null;
+            }
+            final File file = new File(mDir, getFileName(mKey + '\u0000' + font.lastModified()));
+            if (file.isFile()) {
+                final Bitmap bitmap = BitmapFactory.decodeFile(file.getPath());
+                if (bitmap != null) {
+                    mFromDisk = true;
+                    return bitmap;
+                }
+            }
+            final Bitmap bitmap = render();
+            if (bitmap != null) {
+                write(file, bitmap);
+            }
+            return bitmap;
+        }
+
+        @Override
+        protected void onPostExecute(Bitmap bitmap) {
+            final ArrayList<ImageView> waiting = mPending.remove(mKey);
+            if (bitmap == null) {
+                return;
+            }
+            if (mFromDisk) {
+                mDiskHits++;
+            } else {
+                mRendered++;
+            }
+            mBitmaps.put(mKey, bitmap);
+            for (ImageView preview : waiting) {
+                // Views recycled for another font since have a new tag
+                if (mKey.equals(preview.getTag())) {
+                    final View row = (View) preview.getParent();
+                    showPreview((TextView) row.findViewById(com.android.internal.R.id.title),
+                            preview, bitmap);
+                }
+            }
+        }
+
+        private Bitmap render() {
+            final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+            paint.setTypeface(mTypefaces.get(mPreviewPath));
+            paint.setTextSize(mTextSize);
+            paint.setColor(Color.WHITE);
+            final String text = TextUtils.ellipsize(mText, paint, mTextSize * MAX_WIDTH_EMS,
+                    TextUtils.TruncateAt.END).toString();
+            final Paint.FontMetricsInt metrics = paint.getFontMetricsInt();
+            final int width = (int) Math.ceil(paint.measureText(text));
+            final int height = metrics.bottom - metrics.top;
+            if (width <= 0 || height <= 0) {
+                return null;
+            }
+            final Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            new Canvas(bitmap).drawText(text, 0, -metrics.top, paint);
+            return bitmap;
+        }
+
+        private void write(File file, Bitmap bitmap) {
+            synchronized (mDir) {
+                if (!mDir.isDirectory() && !mDir.mkdirs()) {
+                    return;
+                }
+                if (!mTrimmed) {
+                    trimDisk();
+                    mTrimmed = true;
+                }
+            }
+            // Written aside first, so a reader never decodes half a file
+            final File temp = new File(mDir, file.getName() + ".tmp");
+            FileOutputStream out = null;
+            try {
+                out = new FileOutputStream(temp);
+                bitmap.compress(Bitmap.CompressFormat.PNG, 100, out);
+                out.close();
+                out = null;
+                if (!temp.renameTo(file)) {
+                    temp.delete();
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to write preview of " + mPreviewPath, e);
+                temp.delete();
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // Already failed
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the oldest files past MAX_DISK_FILES, once per process.
+     */
+    private void trimDisk() {
+        final File[] files = mDir.listFiles();
+        if (files == null || files.length <= MAX_DISK_FILES) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(b.lastModified(), a.lastModified());
+            }
+        });
+        for (int i = MAX_DISK_FILES; i < files.length; i++) {
+            files[i].delete();
+        }
+    }
+
+    private static String getFileName(String key) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(key.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder builder = new StringBuilder(digest.length * 2 + 4);
+            for (byte b : digest) {
+                builder.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return builder.append(".png").toString();
+        } catch (NoSuchAlgorithmException e) {
+            return Integer.toHexString(key.hashCode()) + ".png";
+        }
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.fragments.display;
+
+import android.content.Context;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+import com.android.settings.R;
+
+import java.io.File;
+import java.io.PrintWriter;
+
+/**
+ * Process-wide LRU cache of font preview typefaces, keyed by preview path.
+ * Entries are weighed by the size of their font file, against the budget
+ * set by config_hazard_typeface_cache_kb.
+ */
+public final class TypefaceCache {
+    private static TypefaceCache sInstance;
+
+    private final LruCache<String, Entry> mTypefaces;
+
+    private static final class Entry {
+        final Typeface typeface;
+        // Measured once, LruCache requires the size of an entry never to change
+        final int kb;
+
+        Entry(Typeface typeface, int kb) {
+            this.typeface = typeface;
+            this.kb = kb;
+        }
+    }
+
+    private TypefaceCache(int maxKb) {
+        mTypefaces = new LruCache<String, Entry>(maxKb) {
+            @Override
+            protected int sizeOf(String path, Entry entry) {
+                return entry.kb;
+            }
+        };
+    }
+
+    public static synchronized TypefaceCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new TypefaceCache(context.getResources().getInteger(
+                    R.integer.config_hazard_typeface_cache_kb));
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns null if the instance wasn't created yet, for dumping stats
+     * without a context.
+     */
+    public static synchronized TypefaceCache peekInstance() {
+        return sInstance;
+    }
+
+    public Typeface get(String previewPath) {
+        Entry entry = mTypefaces.get(previewPath);
+        if (entry == null) {
+            // Parsing the font is the expensive part, a racing load is harmless
+            final int kb = (int) Math.max(1, new File(previewPath).length() / 1024);
+            entry = new Entry(new Typeface.Builder(previewPath).build(), kb);
+            mTypefaces.put(previewPath, entry);
+        }
+        return entry.typeface;
+    }
+
+    public void remove(String previewPath) {
+        mTypefaces.remove(previewPath);
+    }
+
+    public void clear() {
+        mTypefaces.evictAll();
+    }
+
+    public void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Font preview typefaces: " + mTypefaces.size() + "/"
+                + mTypefaces.maxSize() + " KiB, " + mTypefaces.hitCount() + " hits, "
+                + mTypefaces.missCount() + " misses, " + mTypefaces.evictionCount()
+                + " evictions");
+    }
+}
@@ -30,7 +30,6 @@ import com.android.settings.R;
 
 public class CustomSeekBarPreference extends Preference implements SeekBar.OnSeekBarChangeListener {
     private final String TAG = getClass().getName();
-    private static final String SETTINGS_NS = "http://schemas.android.com/apk/res/com.android.settings";
     private static final String ANDROIDNS = "http://schemas.android.com/apk/res/android";
     private static final int DEFAULT_VALUE = 50;
 
@@ -51,30 +50,36 @@ public class CustomSeekBarPreference extends Preference implements SeekBar.OnSee
         final TypedArray a = context.obtainStyledAttributes(
                 attrs, R.styleable.CustomSeekBarPreference);
 
-        mMax = attrs.getAttributeIntValue(ANDROIDNS, "max", 100);
-        mMin = attrs.getAttributeIntValue(SETTINGS_NS, "min", 0);
-        mDefaultValue = attrs.getAttributeIntValue(ANDROIDNS, "defaultValue", -1);
+        // Named by index in XML, so no lookup by key string
+        final int schemaIndex = a.getInt(R.styleable.CustomSeekBarPreference_schemaIndex, -1);
+        final SettingsSchema.Key key = schemaIndex >= 0 ? SettingsSchema.get(schemaIndex) : null;
+        if (key != null) {
+            mMax = key.max;
+            mMin = key.min;
+            mInterval = key.interval;
+        }
+        if (attrs != null) {
+            // The XML wins, the schema only fills in the range it leaves out
+            mMax = attrs.getAttributeIntValue(ANDROIDNS, "max", mMax);
+            mMin = a.getInt(R.styleable.CustomSeekBarPreference_min, mMin);
+            mInterval = a.getInt(R.styleable.CustomSeekBarPreference_interval, mInterval);
+            // Only a default declared in XML is shown as the default text
+            mDefaultValue = attrs.getAttributeIntValue(ANDROIDNS, "defaultValue", -1);
+            if (getKey() != null) {
+                SettingsSchema.checkPreference(key, getKey(), mMin, mMax, mInterval);
+            }
+        }
         if (mDefaultValue > mMax) {
             mDefaultValue = mMax;
         }
-        mUnits = getAttributeStringValue(attrs, SETTINGS_NS, "units", "");
-        mDefaultText = getAttributeStringValue(attrs, SETTINGS_NS, "defaultText", "Def");
 
-        Integer id = a.getResourceId(R.styleable.CustomSeekBarPreference_units, 0);
-        if (id > 0) {
-            mUnits = context.getResources().getString(id);
+        mUnits = a.getString(R.styleable.CustomSeekBarPreference_units);
+        if (mUnits == null) {
+            mUnits = "";
         }
-        id = a.getResourceId(R.styleable.CustomSeekBarPreference_defaultText, 0);
-        if (id > 0) {
-            mDefaultText = context.getResources().getString(id);
-        }
-
-        try {
-            String newInterval = attrs.getAttributeValue(SETTINGS_NS, "interval");
-            if (newInterval != null)
-                mInterval = Integer.parseInt(newInterval);
-        } catch (Exception e) {
-            Log.e(TAG, "Invalid interval value", e);
+        mDefaultText = a.getString(R.styleable.CustomSeekBarPreference_defaultText);
+        if (mDefaultText == null) {
+            mDefaultText = "Def";
         }
 
         a.recycle();
@@ -96,13 +101,17 @@ public class CustomSeekBarPreference extends Preference implements SeekBar.OnSee
         this(context, null);
     }
 
-    private String getAttributeStringValue(AttributeSet attrs, String namespace, String name,
-            String defaultValue) {
-        String value = attrs.getAttributeValue(namespace, name);
-        if (value == null)
-            value = defaultValue;
-
-        return value;
+    /**
+     * Creates a preference for a schema key, without going through XML.
+     */
+    public CustomSeekBarPreference(Context context, SettingsSchema.Key key) {
+        this(context, null);
+        setKey(key.preferenceKey);
+        mMax = key.max;
+        mMin = key.min;
+        mInterval = key.interval;
+        // Like the XML screens, which declare no default, no value shows as default text
+        mSeekBar.setMax(mMax - mMin);
     }
 
     @Override
@@ -167,7 +176,10 @@ public class CustomSeekBarPreference extends Preference implements SeekBar.OnSee
     }
 
     public void setValue(int value) {
-        mCurrentValue = value;
+        if (mCurrentValue != value) {
+            mCurrentValue = value;
+            notifyChanged();
+        }
     }
 
     @Override
@@ -18,50 +18,30 @@ package com.toxyc.hazard.preference;
 
 import android.content.Context;
 import android.support.v7.preference.CheckBoxPreference;
-import android.provider.Settings;
 import android.util.AttributeSet;
 
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+
 public class GlobalCheckBoxPreference extends CheckBoxPreference {
     public GlobalCheckBoxPreference(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
+        setPreferenceDataStore(new SettingsStore(context.getContentResolver(), Namespace.GLOBAL));
     }
 
     public GlobalCheckBoxPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
+        setPreferenceDataStore(new SettingsStore(context.getContentResolver(), Namespace.GLOBAL));
     }
 
     public GlobalCheckBoxPreference(Context context) {
         super(context, null);
-    }
-
-    @Override
-    protected boolean persistBoolean(boolean value) {
-        if (shouldPersist()) {
-            if (value == getPersistedBoolean(!value)) {
-                // It's already there, so the same as persisting
-                return true;
-            }
-
-            Settings.Global.putInt(getContext().getContentResolver(), getKey(), value ? 1 : 0);
-            return true;
-        }
-        return false;
-    }
-
-    @Override
-    protected boolean getPersistedBoolean(boolean defaultReturnValue) {
-        if (!shouldPersist()) {
-            return defaultReturnValue;
-        }
-
-        return Settings.Global.getInt(getContext().getContentResolver(),
-                getKey(), defaultReturnValue ? 1 : 0) != 0;
+        setPreferenceDataStore(new SettingsStore(context.getContentResolver(), Namespace.GLOBAL));
     }
 
     @Override
     protected void onSetInitialValue(boolean restoreValue, Object defaultValue) {
-        setChecked(Settings.System.getString(getContext().getContentResolver(), getKey()) != null ? getPersistedBoolean(isChecked())
-                : (Boolean) defaultValue);
+        final Boolean value = ((SettingsStore) getPreferenceDataStore()).peekBoolean(getKey());
+        setChecked(value != null ? value : (Boolean) defaultValue);
     }
 
 }
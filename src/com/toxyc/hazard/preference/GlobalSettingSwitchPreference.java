@@ -17,48 +17,30 @@
 package com.toxyc.hazard.preference;
 
 import android.content.Context;
-import android.provider.Settings;
 import android.support.v14.preference.SwitchPreference;
 import android.util.AttributeSet;
 
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+
 public class GlobalSettingSwitchPreference extends SwitchPreference {
     public GlobalSettingSwitchPreference(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
+        setPreferenceDataStore(new SettingsStore(context.getContentResolver(), Namespace.GLOBAL));
     }
 
     public GlobalSettingSwitchPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
+        setPreferenceDataStore(new SettingsStore(context.getContentResolver(), Namespace.GLOBAL));
     }
 
     public GlobalSettingSwitchPreference(Context context) {
         super(context, null);
-    }
-
-    @Override
-    protected boolean persistBoolean(boolean value) {
-        if (shouldPersist()) {
-            if (value == getPersistedBoolean(!value)) {
-                // It's already there, so the same as persisting
-                return true;
-            }
-            Settings.Global.putInt(getContext().getContentResolver(), getKey(), value ? 1 : 0);
-            return true;
-        }
-        return false;
-    }
-
-    @Override
-    protected boolean getPersistedBoolean(boolean defaultReturnValue) {
-        if (!shouldPersist()) {
-            return defaultReturnValue;
-        }
-        return Settings.Global.getInt(getContext().getContentResolver(),
-                getKey(), defaultReturnValue ? 1 : 0) != 0;
+        setPreferenceDataStore(new SettingsStore(context.getContentResolver(), Namespace.GLOBAL));
     }
 
     @Override
     protected void onSetInitialValue(boolean restoreValue, Object defaultValue) {
-        setChecked(Settings.Global.getString(getContext().getContentResolver(), getKey()) != null ? getPersistedBoolean(isChecked())
-                : (Boolean) defaultValue);
+        final Boolean value = ((SettingsStore) getPreferenceDataStore()).peekBoolean(getKey());
+        setChecked(value != null ? value : (Boolean) defaultValue);
     }
 }
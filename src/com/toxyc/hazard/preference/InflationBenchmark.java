@@ -0,0 +1,64 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.content.Context;
+import android.support.v7.preference.PreferenceManager;
+
+import java.io.PrintWriter;
+
+/**
+ * Compares building each precompiled screen from XML and from its
+ * {@link PreferenceScreenFactory}. Both paths run on the calling thread with
+ * the same preference manager, after one untimed warm-up round. Also reports
+ * whether each factory still builds what its XML declares.
+ */
+public final class InflationBenchmark {
+
+    private InflationBenchmark() {
+    }
+
+    public static void run(PreferenceManager manager, PrintWriter writer, int iterations) {
+        final Context context = manager.getContext();
+        writer.println("Preference inflation, " + iterations + " iterations:");
+        for (int i = 0; i < PrecompiledScreens.getFactoryCount(); i++) {
+            final int xmlResId = PrecompiledScreens.getXmlResId(i);
+            final PreferenceScreenFactory factory = PrecompiledScreens.getFactory(xmlResId);
+            final LatencyHistogram xml = new LatencyHistogram();
+            final LatencyHistogram precompiled = new LatencyHistogram();
+
+            manager.inflateFromResource(context, xmlResId, null);
+            factory.create(context, manager);
+            for (int j = 0; j < iterations; j++) {
+                long start = System.nanoTime();
+                manager.inflateFromResource(context, xmlResId, null);
+                xml.record(System.nanoTime() - start);
+
+                start = System.nanoTime();
+                factory.create(context, manager);
+                precompiled.record(System.nanoTime() - start);
+            }
+
+            writer.println("  " + context.getResources().getResourceEntryName(xmlResId) + ":");
+            writer.println("    xml:         " + xml);
+            writer.println("    precompiled: " + precompiled);
+            final String difference = PrecompiledScreens.diff(manager, xmlResId);
+            writer.println(difference == null ? "    matches XML"
+                    : "    DIFFERS FROM XML at " + difference);
+        }
+    }
+}
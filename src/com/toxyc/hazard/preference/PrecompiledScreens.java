@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.content.Context;
+import android.support.v14.preference.SwitchPreference;
+import android.support.v7.preference.ListPreference;
+import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceCategory;
+import android.support.v7.preference.PreferenceGroup;
+import android.support.v7.preference.PreferenceManager;
+import android.support.v7.preference.PreferenceScreen;
+import android.text.TextUtils;
+import android.util.SparseArray;
+
+import com.android.settings.R;
+
+import java.util.Arrays;
+
+/**
+ * Code versions of the most often opened res/xml screens. Each factory must
+ * build exactly what its XML declares, so keep them in sync when editing one
+ * of these screens; {@link #diff} tells where they differ, and is run with the
+ * inflation benchmark. {@link #inflate} falls back to the XML for all others.
+ */
+public final class PrecompiledScreens {
+
+    private static final SparseArray<PreferenceScreenFactory> sFactories =
+            new SparseArray<PreferenceScreenFactory>();
+
+    static {
+        sFactories.put(R.xml.quick_settings, new PreferenceScreenFactory() {
+            @Override
+            public PreferenceScreen create(Context context, PreferenceManager manager) {
+                final PreferenceScreen screen = manager.createPreferenceScreen(context);
+                screen.setTitle(R.string.quicksettings_title);
+
+                final PreferenceCategory general = addCategory(context, screen,
+                        "quick_settings_general_category", R.string.qs_brightness_slider_title);
+                addSwitch(general, new SecureSettingSwitchPreference(context),
+                        "qs_show_brightness", R.string.qs_brightness_slider_title,
+                        R.string.qs_brightness_slider_summary, true, null);
+                addSwitch(general, new SystemSettingSwitchPreference(context),
+                        "qs_show_brightness_icon", R.string.brightness_icon_title,
+                        R.string.brightness_icon_summary, true, "qs_show_brightness");
+
+                final PreferenceCategory rowsColumns = addCategory(context, screen,
+                        "qs_rows_columns", R.string.qs_rows_columns_title);
+                addSeekBar(context, rowsColumns, SettingsSchema.QS_ROWS_PORTRAIT,
+                        R.string.qs_rows_portrait_title);
+                addSeekBar(context, rowsColumns, SettingsSchema.QS_ROWS_LANDSCAPE,
+                        R.string.qs_rows_landscape_title);
+                addSeekBar(context, rowsColumns, SettingsSchema.QS_COLUMNS_PORTRAIT,
+                        R.string.qs_columns_portrait_title);
+                addSeekBar(context, rowsColumns, SettingsSchema.QS_COLUMNS_LANDSCAPE,
+                        R.string.qs_columns_landscape_title);
+                return screen;
+            }
+        });
+
+        sFactories.put(R.xml.status_bar_clock_date_settings, new PreferenceScreenFactory() {
+            @Override
+            public PreferenceScreen create(Context context, PreferenceManager manager) {
+                final PreferenceScreen screen = manager.createPreferenceScreen(context);
+                screen.setTitle(R.string.status_bar_clock_date_settings_title);
+
+                final ListPreference position = new ListPreference(context);
+                position.setDialogTitle(R.string.position_title);
+                addList(screen, position, "clock_date_position", R.string.position_title,
+                        R.array.clock_date_position_entries,
+                        R.array.clock_date_position_values);
+                addSwitch(screen, new SwitchPreference(context), "clock_date_show_seconds",
+                        R.string.clock_date_show_seconds_title,
+                        R.string.clock_date_show_seconds_summary, null, null);
+                addSwitch(screen, new SwitchPreference(context), "clock_date_show_date",
+                        R.string.clock_date_show_date_title,
+                        R.string.clock_date_show_date_summary, null, null);
+
+                final PreferenceCategory date = addCategory(context, screen,
+                        "clock_date_cat_date", R.string.clock_date_cat_date_title);
+                final ListPreference format = new ListPreference(context);
+                format.setSummary(R.string.list_preference_default_summary);
+                addList(date, format, "clock_date_date_format",
+                        R.string.clock_date_date_format_title,
+                        R.array.clock_date_date_format_entries,
+                        R.array.clock_date_date_format_values);
+                addList(date, new ListPreference(context), "clock_date_date_style",
+                        R.string.clock_date_date_style_title,
+                        R.array.clock_date_date_style_entries,
+                        R.array.clock_date_date_style_values);
+                addSwitch(date, new SwitchPreference(context), "clock_date_date_size_small",
+                        R.string.clock_date_date_size_small_title,
+                        R.string.clock_date_date_size_small_summary, null, null);
+                return screen;
+            }
+        });
+    }
+
+    private PrecompiledScreens() {
+    }
+
+    /**
+     * Builds the screen for {@code xmlResId}, from code if it has a factory.
+     */
+    public static PreferenceScreen inflate(PreferenceManager manager, int xmlResId) {
+        final PreferenceScreenFactory factory = sFactories.get(xmlResId);
+        if (factory != null) {
+            return factory.create(manager.getContext(), manager);
+        }
+        return manager.inflateFromResource(manager.getContext(), xmlResId, null);
+    }
+
+    static PreferenceScreenFactory getFactory(int xmlResId) {
+        return sFactories.get(xmlResId);
+    }
+
+    static int getFactoryCount() {
+        return sFactories.size();
+    }
+
+    static int getXmlResId(int index) {
+        return sFactories.keyAt(index);
+    }
+
+    /**
+     * Compares the screen the factory of {@code xmlResId} builds with the one
+     * its XML inflates: classes, keys, titles, summaries, dependencies, list
+     * entries and order. Returns the first difference, or null if there is none.
+     */
+    static String diff(PreferenceManager manager, int xmlResId) {
+        final Context context = manager.getContext();
+        return diff(manager.inflateFromResource(context, xmlResId, null),
+                sFactories.get(xmlResId).create(context, manager), "");
+    }
+
+    private static String diff(Preference xml, Preference code, String parent) {
+        final String path = parent + '/' + xml.getKey();
+        if (xml.getClass() != code.getClass()) {
+            return path + ": " + xml.getClass().getSimpleName() + " in XML, "
+                    + code.getClass().getSimpleName() + " in code";
+        }
+        if (!TextUtils.equals(xml.getKey(), code.getKey())) {
+            return path + ": key " + code.getKey() + " in code";
+        }
+        if (!TextUtils.equals(xml.getTitle(), code.getTitle())) {
+            return path + ": title \"" + xml.getTitle() + "\" in XML, \""
+                    + code.getTitle() + "\" in code";
+        }
+        if (!TextUtils.equals(xml.getSummary(), code.getSummary())) {
+            return path + ": summary \"" + xml.getSummary() + "\" in XML, \""
+                    + code.getSummary() + "\" in code";
+        }
+        if (!TextUtils.equals(xml.getDependency(), code.getDependency())) {
+            return path + ": depends on " + xml.getDependency() + " in XML, "
+                    + code.getDependency() + " in code";
+        }
+        if (xml instanceof ListPreference) {
+            final ListPreference xmlList = (ListPreference) xml;
+            final ListPreference codeList = (ListPreference) code;
+            if (!Arrays.equals(xmlList.getEntries(), codeList.getEntries())
+                    || !Arrays.equals(xmlList.getEntryValues(), codeList.getEntryValues())) {
+                return path + ": list entries differ";
+            }
+        }
+        if (xml instanceof PreferenceGroup) {
+            final PreferenceGroup xmlGroup = (PreferenceGroup) xml;
+            final PreferenceGroup codeGroup = (PreferenceGroup) code;
+            if (xmlGroup.getPreferenceCount() != codeGroup.getPreferenceCount()) {
+                return path + ": " + xmlGroup.getPreferenceCount() + " children in XML, "
+                        + codeGroup.getPreferenceCount() + " in code";
+            }
+            for (int i = 0; i < xmlGroup.getPreferenceCount(); i++) {
+                final String difference = diff(xmlGroup.getPreference(i),
+                        codeGroup.getPreference(i), path);
+                if (difference != null) {
+                    return difference;
+                }
+            }
+        }
+        return null;
+    }
+
+    // Groups must be attached before children are added to them, and children
+    // must be fully set up before, as adding one binds its initial value.
+
+    private static PreferenceCategory addCategory(Context context, PreferenceGroup parent,
+            String key, int titleRes) {
+        final PreferenceCategory category = new PreferenceCategory(context);
+        category.setKey(key);
+        category.setTitle(titleRes);
+        parent.addPreference(category);
+        return category;
+    }
+
+    private static void addSwitch(PreferenceGroup parent, SwitchPreference pref, String key,
+            int titleRes, int summaryRes, Boolean defaultValue, String dependency) {
+        pref.setKey(key);
+        pref.setTitle(titleRes);
+        pref.setSummary(summaryRes);
+        if (defaultValue != null) {
+            pref.setDefaultValue(defaultValue);
+        }
+        if (dependency != null) {
+            pref.setDependency(dependency);
+        }
+        parent.addPreference(pref);
+    }
+
+    private static void addList(PreferenceGroup parent, ListPreference pref, String key,
+            int titleRes, int entriesRes, int entryValuesRes) {
+        pref.setKey(key);
+        pref.setTitle(titleRes);
+        pref.setEntries(entriesRes);
+        pref.setEntryValues(entryValuesRes);
+        parent.addPreference(pref);
+    }
+
+    private static void addSeekBar(Context context, PreferenceGroup parent,
+            SettingsSchema.Key key, int titleRes) {
+        final Preference pref = new CustomSeekBarPreference(context, key);
+        pref.setTitle(titleRes);
+        parent.addPreference(pref);
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.content.ContentResolver;
+import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceGroup;
+
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Declares when preferences of a screen are enabled or shown, as conditions
+ * on schema settings. When a setting changes, only the rules reading it are
+ * evaluated again, and a preference is only touched if its outcome flips.
+ *
+ * <pre>
+ * mRules = new PreferenceRules(resolver, UserHandle.myUserId())
+ *         .enableWhen(mBatteryPercentage,
+ *                 PreferenceRules.intNotIn(SettingsSchema.STATUS_BAR_BATTERY_STYLE, 6, 7));
+ * mRules.evaluateAll();
+ * ...
+ * mRules.onValueChanged(SettingsSchema.STATUS_BAR_BATTERY_STYLE, value);
+ * </pre>
+ */
+public final class PreferenceRules implements SettingsStore.OnSettingsChangedListener {
+
+    /**
+     * A condition over the settings it names as inputs. Read them through
+     * the {@link PreferenceRules} passed to {@link #evaluate}.
+     */
+    public abstract static class Condition {
+        final SettingsSchema.Key[] mInputs;
+
+        protected Condition(SettingsSchema.Key... inputs) {
+            mInputs = inputs;
+        }
+
+        public abstract boolean evaluate(PreferenceRules values);
+    }
+
+    /**
+     * Anything a rule outcome can be applied to.
+     */
+    public interface Target {
+        void apply(boolean value);
+    }
+
+    private static final class Rule {
+        final Target target;
+        final Condition condition;
+        Boolean value;
+
+        Rule(Target target, Condition condition) {
+            this.target = target;
+            this.condition = condition;
+        }
+    }
+
+    private final ContentResolver mResolver;
+    private final int mUserId;
+    private final EnumMap<Namespace, SettingsStore> mStores =
+            new EnumMap<Namespace, SettingsStore>(Namespace.class);
+    private final HashMap<SettingsSchema.Key, String> mValues =
+            new HashMap<SettingsSchema.Key, String>();
+    private final HashMap<SettingsSchema.Key, ArrayList<Rule>> mDependents =
+            new HashMap<SettingsSchema.Key, ArrayList<Rule>>();
+    private final ArrayList<Rule> mRules = new ArrayList<Rule>();
+
+    public PreferenceRules(ContentResolver resolver, int userId) {
+        mResolver = resolver;
+        mUserId = userId;
+    }
+
+    public PreferenceRules enableWhen(final Preference preference, Condition condition) {
+        return applyWhen(new Target() {
+            @Override
+            public void apply(boolean value) {
+                preference.setEnabled(value);
+            }
+        }, condition);
+    }
+
+    /**
+     * Keeps {@code preference} in {@code parent} only while the condition
+     * holds. It must have been added to {@code parent} already, so it keeps
+     * its order when added back.
+     */
+    public PreferenceRules showWhen(final PreferenceGroup parent, final Preference preference,
+            Condition condition) {
+        return applyWhen(new Target() {
+            @Override
+            public void apply(boolean value) {
+                final boolean shown = parent.findPreference(preference.getKey()) != null;
+                if (value && !shown) {
+                    parent.addPreference(preference);
+                } else if (!value && shown) {
+                    parent.removePreference(preference);
+                }
+            }
+        }, condition);
+    }
+
+    public PreferenceRules applyWhen(Target target, Condition condition) {
+        final Rule rule = new Rule(target, condition);
+        mRules.add(rule);
+        for (SettingsSchema.Key input : condition.mInputs) {
+            ArrayList<Rule> dependents = mDependents.get(input);
+            if (dependents == null) {
+                dependents = new ArrayList<Rule>();
+                mDependents.put(input, dependents);
+            }
+            dependents.add(rule);
+        }
+        return this;
+    }
+
+    /**
+     * Reads every input and applies every rule, for binding the screen.
+     */
+    public void evaluateAll() {
+        for (SettingsSchema.Key input : mDependents.keySet()) {
+            mValues.put(input, read(input));
+        }
+        evaluate(mRules);
+    }
+
+    /**
+     * Tells the rules a setting was just written, without reading it back.
+     */
+    public void onValueChanged(SettingsSchema.Key key, Object value) {
+        if (!mDependents.containsKey(key)) {
+            return;
+        }
+        final String raw;
+        if (value instanceof Boolean) {
+            raw = (Boolean) value ? "1" : "0";
+        } else {
+            raw = value != null ? value.toString() : null;
+        }
+        mValues.put(key, raw);
+        evaluate(mDependents.get(key));
+    }
+
+    /**
+     * Reads the inputs changed by a {@link SettingsTransaction} again.
+     */
+    @Override
+    public void onSettingsChanged(Namespace namespace, Set<String> keys) {
+        final LinkedHashSet<Rule> dirty = new LinkedHashSet<Rule>();
+        for (SettingsSchema.Key input : mDependents.keySet()) {
+            if (input.namespace == namespace && keys.contains(input.name)) {
+                mValues.put(input, read(input));
+                dirty.addAll(mDependents.get(input));
+            }
+        }
+        evaluate(dirty);
+    }
+
+    public boolean getBoolean(SettingsSchema.Key key) {
+        return getInt(key) != 0;
+    }
+
+    public int getInt(SettingsSchema.Key key) {
+        final String value = getString(key);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value);
+            } catch (NumberFormatException e) {
+                // Fall through to the default
+            }
+        }
+        return key.getDefaultInt();
+    }
+
+    public String getString(SettingsSchema.Key key) {
+        return mValues.containsKey(key) ? mValues.get(key) : key.defaultValue;
+    }
+
+    public static Condition isTrue(final SettingsSchema.Key key) {
+        return new Condition(key) {
+            @Override
+            public boolean evaluate(PreferenceRules values) {
+                return values.getBoolean(key);
+            }
+        };
+    }
+
+    public static Condition isFalse(final SettingsSchema.Key key) {
+        return new Condition(key) {
+            @Override
+            public boolean evaluate(PreferenceRules values) {
+                return !values.getBoolean(key);
+            }
+        };
+    }
+
+    public static Condition intNotIn(final SettingsSchema.Key key, final int... excluded) {
+        return new Condition(key) {
+            @Override
+            public boolean evaluate(PreferenceRules values) {
+                final int value = values.getInt(key);
+                for (int e : excluded) {
+                    if (value == e) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    public static Condition and(final Condition... conditions) {
+        final LinkedHashSet<SettingsSchema.Key> inputs = new LinkedHashSet<SettingsSchema.Key>();
+        for (Condition condition : conditions) {
+            Collections.addAll(inputs, condition.mInputs);
+        }
+        return new Condition(inputs.toArray(new SettingsSchema.Key[inputs.size()])) {
+            @Override
+            public boolean evaluate(PreferenceRules values) {
+                for (Condition condition : conditions) {
+                    if (!condition.evaluate(values)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        };
+    }
+
+    private void evaluate(Collection<Rule> rules) {
+        for (Rule rule : rules) {
+            final boolean value = rule.condition.evaluate(this);
+            if (rule.value == null || rule.value != value) {
+                rule.value = value;
+                rule.target.apply(value);
+            }
+        }
+    }
+
+    private String read(SettingsSchema.Key key) {
+        SettingsStore store = mStores.get(key.namespace);
+        if (store == null) {
+            store = new SettingsStore(mResolver, key.namespace);
+            mStores.put(key.namespace, store);
+        }
+        return store.getStringForUser(key.name, key.defaultValue, mUserId);
+    }
+}
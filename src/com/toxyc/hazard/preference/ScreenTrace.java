@@ -0,0 +1,238 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Timeline of the last Hazard screen open, from {@link #start} to the first
+ * frame. Sections can overlap and end in any order; each one also adds up
+ * the settings provider time spent on its thread while it was open.
+ *
+ * The timeline can be read back with {@link #getEvents()}, printed, or
+ * written in the Chrome trace event format, which chrome://tracing and
+ * Perfetto open directly.
+ */
+public final class ScreenTrace {
+    private static final int MAX_EVENTS = 1024;
+
+    public static final class Event {
+        public final String name;
+        public final long threadId;
+        public final String threadName;
+        /** Relative to the {@link #start} of the timeline */
+        public final long startNanos;
+        /** Zero for instant events */
+        public final long durationNanos;
+        /** Settings provider time on this thread while the section was open */
+        public final long providerNanos;
+
+        Event(String name, Thread thread, long startNanos, long durationNanos,
+                long providerNanos) {
+            this.name = name;
+            this.threadId = thread.getId();
+            this.threadName = thread.getName();
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.providerNanos = providerNanos;
+        }
+    }
+
+    /**
+     * An open section, returned by {@link #begin}.
+     */
+    public static final class Section {
+        private final String mName;
+        private final long mStartNanos;
+        private long mProviderNanos;
+        private boolean mEnded;
+
+        private Section(String name) {
+            mName = name;
+            mStartNanos = System.nanoTime();
+        }
+
+        public void end() {
+            if (mEnded) {
+                return;
+            }
+            mEnded = true;
+            sOpenSections.get().remove(this);
+            add(new Event(mName, Thread.currentThread(), mStartNanos - sOriginNanos,
+                    System.nanoTime() - mStartNanos, mProviderNanos));
+        }
+    }
+
+    private static final ArrayList<Event> sEvents = new ArrayList<Event>();
+    private static volatile long sOriginNanos = System.nanoTime();
+    private static int sDropped;
+
+    private static final ThreadLocal<ArrayList<Section>> sOpenSections =
+            new ThreadLocal<ArrayList<Section>>() {
+        @Override
+        protected ArrayList<Section> initialValue() {
+            return new ArrayList<Section>();
+        }
+    };
+
+    private ScreenTrace() {
+    }
+
+    /**
+     * Clears the timeline and starts a new one at the current time.
+     */
+    public static void start(String name) {
+        synchronized (sEvents) {
+            sEvents.clear();
+            sDropped = 0;
+            sOriginNanos = System.nanoTime();
+        }
+        mark(name);
+    }
+
+    /**
+     * Opens a section on the calling thread, which must also end it.
+     */
+    public static Section begin(String name) {
+        final Section section = new Section(name);
+        sOpenSections.get().add(section);
+        return section;
+    }
+
+    public static void mark(String name) {
+        add(new Event(name, Thread.currentThread(), System.nanoTime() - sOriginNanos, 0, 0));
+    }
+
+    /**
+     * Returns the innermost open section on the calling thread, or null.
+     */
+    public static String getCurrentSectionName() {
+        final ArrayList<Section> open = sOpenSections.get();
+        return open.isEmpty() ? null : open.get(open.size() - 1).mName;
+    }
+
+    /**
+     * Charges provider time to every section open on the calling thread.
+     */
+    static void addProviderTime(long nanos) {
+        final ArrayList<Section> open = sOpenSections.get();
+        for (int i = 0; i < open.size(); i++) {
+            open.get(i).mProviderNanos += nanos;
+        }
+    }
+
+    public static List<Event> getEvents() {
+        synchronized (sEvents) {
+            return Collections.unmodifiableList(new ArrayList<Event>(sEvents));
+        }
+    }
+
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Screen open timeline (start +ms, duration ms, provider ms):");
+        for (Event event : getEvents()) {
+            writer.print(prefix);
+            writer.print("  +");
+            writer.print(toMillis(event.startNanos));
+            if (event.durationNanos > 0) {
+                writer.print(' ');
+                writer.print(toMillis(event.durationNanos));
+                writer.print(' ');
+                writer.print(toMillis(event.providerNanos));
+            }
+            writer.print(' ');
+            writer.print(event.name);
+            writer.print(" [");
+            writer.print(event.threadName);
+            writer.println(']');
+        }
+        synchronized (sEvents) {
+            if (sDropped > 0) {
+                writer.print(prefix);
+                writer.println("  " + sDropped + " events dropped");
+            }
+        }
+    }
+
+    /**
+     * Writes the timeline as a Chrome trace event JSON document.
+     */
+    public static void writeJson(Writer writer) throws IOException {
+        final List<Event> events = getEvents();
+        final HashSet<Long> threads = new HashSet<Long>();
+        writer.write("{\"traceEvents\":[");
+        boolean first = true;
+        for (Event event : events) {
+            if (threads.add(event.threadId)) {
+                writer.write(first ? "\n" : ",\n");
+                first = false;
+                writer.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":0,\"tid\":"
+                        + event.threadId + ",\"args\":{\"name\":" + quote(event.threadName)
+                        + "}}");
+            }
+            writer.write(",\n{\"name\":" + quote(event.name)
+                    + ",\"ph\":\"" + (event.durationNanos > 0 ? 'X' : 'i')
+                    + "\",\"pid\":0,\"tid\":" + event.threadId
+                    + ",\"ts\":" + event.startNanos / 1000);
+            if (event.durationNanos > 0) {
+                writer.write(",\"dur\":" + event.durationNanos / 1000
+                        + ",\"args\":{\"provider_us\":" + event.providerNanos / 1000 + "}");
+            } else {
+                writer.write(",\"s\":\"g\"");
+            }
+            writer.write('}');
+        }
+        writer.write("\n]}\n");
+        writer.flush();
+    }
+
+    private static void add(Event event) {
+        synchronized (sEvents) {
+            if (sEvents.size() < MAX_EVENTS) {
+                sEvents.add(event);
+            } else {
+                sDropped++;
+            }
+        }
+    }
+
+    private static String toMillis(long nanos) {
+        return String.format("%.2f", nanos / 1000000.0);
+    }
+
+    private static String quote(String value) {
+        final StringBuilder builder = new StringBuilder(value.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                builder.append('\\').append(c);
+            } else if (c < 0x20) {
+                builder.append(String.format("\\u%04x", (int) c));
+            } else {
+                builder.append(c);
+            }
+        }
+        return builder.append('"').toString();
+    }
+}
@@ -0,0 +1,618 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.content.res.XmlResourceParser;
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.android.settings.R;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * Inverted index over the titles, summaries, keys and entries of every Hazard
+ * preference screen, answering prefix queries without touching res/xml.
+ *
+ * The index is kept in the files dir, stamped with the locale and APK it was
+ * built with. While the stamp matches, the file is used as is. Otherwise
+ * each screen is checked against a checksum of its XML and the strings it
+ * shows, only screens whose checksum changed are read again, and the term
+ * dictionary is rebuilt from the stored tokens.
+ * {@link #get} may do all of that, so call it off the main thread or use
+ * {@link #loadAsync}.
+ */
+public final class SearchIndex {
+    private static final String TAG = "SearchIndex";
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+    private static final String FILE_NAME = "hazard_search.idx";
+    private static final int MAGIC = 0x485a5349; // "HZSI"
+    private static final short VERSION = 2;
+
+    private static final String PACKAGE_FRAGMENTS = "com.toxyc.hazard.fragments.";
+
+    // Every screen that is searched, with the fragment showing it. Screens of
+    // the main tabs have no fragment of their own and name their tab instead.
+    private static final Screen[] SCREENS = {
+            new Screen(R.xml.status_bar, null, 0),
+            new Screen(R.xml.recents, null, 1),
+            new Screen(R.xml.lockscreen, null, 2),
+            new Screen(R.xml.system, null, 3),
+            new Screen(R.xml.quick_settings, PACKAGE_FRAGMENTS + "QuickSettings", -1),
+            new Screen(R.xml.batterys_settings, PACKAGE_FRAGMENTS + "BatterysSettings", -1),
+            new Screen(R.xml.status_bar_clock_date_settings,
+                    PACKAGE_FRAGMENTS + "ClockDateSettings", -1),
+            new Screen(R.xml.carrier_label, PACKAGE_FRAGMENTS + "CarrierLabel", -1),
+            new Screen(R.xml.ticker_settings, PACKAGE_FRAGMENTS + "TickerSettings", -1),
+            new Screen(R.xml.status_bar_misc, PACKAGE_FRAGMENTS + "StatusBarMisc", -1),
+            new Screen(R.xml.recents_settings, PACKAGE_FRAGMENTS + "RecentsSettings", -1),
+            new Screen(R.xml.recents_layout, PACKAGE_FRAGMENTS + "RecentsLayout", -1),
+            new Screen(R.xml.lockscreen_settings, PACKAGE_FRAGMENTS + "LockscreenSettings", -1),
+            new Screen(R.xml.buttons, PACKAGE_FRAGMENTS + "ButtonSettings", -1),
+            new Screen(R.xml.profile_settings, PACKAGE_FRAGMENTS + "ProfileSettings", -1),
+            new Screen(R.xml.misc_settings, PACKAGE_FRAGMENTS + "MiscSettings", -1),
+    };
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private static volatile SearchIndex sIndex;
+    private static volatile long sApkUpdateTime = -1;
+
+    // Locale and APK the index was built for
+    private final String mStamp;
+    private final ArrayList<Result> mDocs;
+    private final String[] mTerms;
+    private final int[][] mPostings;
+
+    /**
+     * A searchable preference and where to find it.
+     */
+    public static final class Result {
+        public final String screenTitle;
+        /** Fragment showing the preference, null if it is on one of the main tabs */
+        public final String fragment;
+        /** Main tab showing the preference, -1 if it has its own fragment */
+        public final int tab;
+        public final String key;
+        public final String title;
+        public final String summary;
+        /** Fragment the preference itself opens, or null */
+        public final String linkedFragment;
+
+        final String[] tokens;
+
+        Result(Screen screen, String screenTitle, String key, String title, String summary,
+                String linkedFragment, String[] tokens) {
+            this.screenTitle = screenTitle;
+            this.fragment = screen.fragment;
+            this.tab = screen.tab;
+            this.key = key;
+            this.title = title;
+            this.summary = summary;
+            this.linkedFragment = linkedFragment;
+            this.tokens = tokens;
+        }
+
+        @Override
+        public String toString() {
+            return title;
+        }
+    }
+
+    private static final class Screen {
+        final int xmlResId;
+        final String fragment;
+        final int tab;
+
+        Screen(int xmlResId, String fragment, int tab) {
+            this.xmlResId = xmlResId;
+            this.fragment = fragment;
+            this.tab = tab;
+        }
+    }
+
+    /** The preferences of one screen, with the checksum of what they were read from */
+    private static final class Section {
+        final String fingerprint;
+        final String title;
+        final ArrayList<Result> docs = new ArrayList<Result>();
+
+        Section(String fingerprint, String title) {
+            this.fingerprint = fingerprint;
+            this.title = title;
+        }
+    }
+
+    private SearchIndex(String stamp, ArrayList<Result> docs, String[] terms,
+            int[][] postings) {
+        mStamp = stamp;
+        mDocs = docs;
+        mTerms = terms;
+        mPostings = postings;
+    }
+
+    /**
+     * Returns the index if it is loaded and matches the current locale, or
+     * null. Never blocks.
+     */
+    public static SearchIndex getIfLoaded(Context context) {
+        final SearchIndex index = sIndex;
+        if (index != null && index.mStamp.equals(getStamp(context))) {
+            return index;
+        }
+        return null;
+    }
+
+    /**
+     * Returns the current index, loading or updating it first if needed.
+     */
+    public static synchronized SearchIndex get(Context context) {
+        final String stamp = getStamp(context);
+        if (sIndex != null && sIndex.mStamp.equals(stamp)) {
+            return sIndex;
+        }
+        final File file = new File(context.getFilesDir(), FILE_NAME);
+        final HashMap<String, Section> stored = new HashMap<String, Section>();
+        SearchIndex index = read(context, file, stamp, stored);
+        if (index == null) {
+            index = update(context, file, stamp, stored);
+        }
+        sIndex = index;
+        return index;
+    }
+
+    /**
+     * Loads the index on a background thread, then runs {@code onLoaded} on
+     * the main thread if it isn't null.
+     */
+    public static void loadAsync(Context context, final Runnable onLoaded) {
+        final Context appContext = context.getApplicationContext();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                get(appContext);
+                if (onLoaded != null) {
+                    sMainHandler.post(onLoaded);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns up to {@code limit} preferences matching every word of the
+     * query as a prefix, those matching on their title first.
+     */
+    public List<Result> query(String query, int limit) {
+        final String[] words = tokenize(query).toArray(new String[0]);
+        final ArrayList<Result> results = new ArrayList<Result>();
+        if (words.length == 0) {
+            return results;
+        }
+        BitSet matches = null;
+        for (String word : words) {
+            final BitSet docs = new BitSet(mDocs.size());
+            int i = Arrays.binarySearch(mTerms, word);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            for (; i < mTerms.length && mTerms[i].startsWith(word); i++) {
+                for (int doc : mPostings[i]) {
+                    docs.set(doc);
+                }
+            }
+            if (matches == null) {
+                matches = docs;
+            } else {
+                matches.and(docs);
+            }
+        }
+
+        final ArrayList<Result> others = new ArrayList<Result>();
+        for (int doc = matches.nextSetBit(0); doc >= 0; doc = matches.nextSetBit(doc + 1)) {
+            final Result result = mDocs.get(doc);
+            if (matchesAll(tokenize(result.title), words)) {
+                results.add(result);
+            } else {
+                others.add(result);
+            }
+        }
+        results.addAll(others);
+        return results.size() > limit ? new ArrayList<Result>(results.subList(0, limit))
+                : results;
+    }
+
+    public int getDocumentCount() {
+        return mDocs.size();
+    }
+
+    private static boolean matchesAll(LinkedHashSet<String> tokens, String[] words) {
+        for (String word : words) {
+            boolean found = false;
+            for (String token : tokens) {
+                if (token.startsWith(word)) {
+                    found = true;
+                    break;
+                }
+            }
+            if (!found) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads the stored index. Returns it if it has the current stamp and every
+     * screen, else fills {@code sections} with the stored screens and returns
+     * null.
+     */
+    private static SearchIndex read(Context context, File file, String stamp,
+            Map<String, Section> sections) {
+        final Resources res = context.getResources();
+        final HashMap<String, Screen> screens = new HashMap<String, Screen>();
+        for (Screen screen : SCREENS) {
+            screens.put(res.getResourceEntryName(screen.xmlResId), screen);
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != MAGIC || in.readShort() != VERSION) {
+                return null;
+            }
+            boolean current = stamp.equals(in.readUTF());
+            final ArrayList<Result> docs = new ArrayList<Result>();
+            final int sectionCount = in.readInt();
+            for (int i = 0; i < sectionCount; i++) {
+                final String name = in.readUTF();
+                final Section section = new Section(in.readUTF(), in.readUTF());
+                final Screen screen = screens.remove(name);
+                final int docCount = in.readInt();
+                for (int j = 0; j < docCount; j++) {
+                    final String key = in.readUTF();
+                    final String title = in.readUTF();
+                    final String summary = readNullableUTF(in);
+                    final String linkedFragment = readNullableUTF(in);
+                    final String[] tokens = new String[in.readInt()];
+                    for (int k = 0; k < tokens.length; k++) {
+                        tokens[k] = in.readUTF();
+                    }
+                    if (screen != null) {
+                        section.docs.add(new Result(screen, section.title, key, title,
+                                summary, linkedFragment, tokens));
+                    }
+                }
+                if (screen != null) {
+                    sections.put(name, section);
+                    docs.addAll(section.docs);
+                }
+            }
+            if (!current || !screens.isEmpty()) {
+                return null;
+            }
+
+            final String[] terms = new String[in.readInt()];
+            final int[][] postings = new int[terms.length][];
+            for (int i = 0; i < terms.length; i++) {
+                terms[i] = in.readUTF();
+                postings[i] = new int[in.readInt()];
+                for (int j = 0; j < postings[i].length; j++) {
+                    postings[i][j] = in.readInt();
+                }
+            }
+            return new SearchIndex(stamp, docs, terms, postings);
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            Log.w(TAG, "Ignoring unreadable search index", e);
+            sections.clear();
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the screens whose checksum differs from theirs in
+     * {@code sections}, rebuilds the dictionary and stores the result.
+     */
+    private static SearchIndex update(Context context, File file, String stamp,
+            Map<String, Section> sections) {
+        final Resources res = context.getResources();
+        final ArrayList<Section> current = new ArrayList<Section>();
+        final ArrayList<Result> docs = new ArrayList<Result>();
+        int parsed = 0;
+        for (Screen screen : SCREENS) {
+            final String fingerprint = getFingerprint(res, screen);
+            Section section = sections.get(res.getResourceEntryName(screen.xmlResId));
+            if (fingerprint == null || section == null
+                    || !fingerprint.equals(section.fingerprint)) {
+                section = parseScreen(res, screen, fingerprint != null ? fingerprint : "");
+                parsed++;
+            }
+            current.add(section);
+            docs.addAll(section.docs);
+        }
+        Log.i(TAG, "Read " + parsed + " of " + SCREENS.length + " screens");
+
+        final TreeMap<String, ArrayList<Integer>> dictionary =
+                new TreeMap<String, ArrayList<Integer>>();
+        for (int doc = 0; doc < docs.size(); doc++) {
+            for (String token : docs.get(doc).tokens) {
+                ArrayList<Integer> posting = dictionary.get(token);
+                if (posting == null) {
+                    posting = new ArrayList<Integer>();
+                    dictionary.put(token, posting);
+                }
+                posting.add(doc);
+            }
+        }
+        final String[] terms = dictionary.keySet().toArray(new String[dictionary.size()]);
+        final int[][] postings = new int[terms.length][];
+        for (int i = 0; i < terms.length; i++) {
+            final ArrayList<Integer> posting = dictionary.get(terms[i]);
+            postings[i] = new int[posting.size()];
+            for (int j = 0; j < postings[i].length; j++) {
+                postings[i][j] = posting.get(j);
+            }
+        }
+
+        try {
+            write(res, file, stamp, current, terms, postings);
+        } catch (IOException e) {
+            // Still usable, it will just be built again next time
+            Log.w(TAG, "Failed to store search index", e);
+        }
+        return new SearchIndex(stamp, docs, terms, postings);
+    }
+
+    private static void write(Resources res, File file, String stamp, List<Section> sections,
+            String[] terms, int[][] postings) throws IOException {
+        final File tmp = new File(file.getPath() + ".tmp");
+        final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeUTF(stamp);
+            out.writeInt(sections.size());
+            for (int i = 0; i < sections.size(); i++) {
+                final Section section = sections.get(i);
+                out.writeUTF(res.getResourceEntryName(SCREENS[i].xmlResId));
+                out.writeUTF(section.fingerprint);
+                out.writeUTF(section.title);
+                out.writeInt(section.docs.size());
+                for (Result doc : section.docs) {
+                    out.writeUTF(doc.key);
+                    out.writeUTF(doc.title);
+                    writeNullableUTF(out, doc.summary);
+                    writeNullableUTF(out, doc.linkedFragment);
+                    out.writeInt(doc.tokens.length);
+                    for (String token : doc.tokens) {
+                        out.writeUTF(token);
+                    }
+                }
+            }
+            out.writeInt(terms.length);
+            for (int i = 0; i < terms.length; i++) {
+                out.writeUTF(terms[i]);
+                out.writeInt(postings[i].length);
+                for (int doc : postings[i]) {
+                    out.writeInt(doc);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+
+    private static Section parseScreen(Resources res, Screen screen, String fingerprint) {
+        Section section = null;
+        XmlResourceParser parser = null;
+        try {
+            parser = res.getXml(screen.xmlResId);
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                final String title = getText(res, parser, "title");
+                if (section == null) {
+                    // The root screen, titled like the fragment showing it
+                    section = new Section(fingerprint, title != null ? title : "");
+                    continue;
+                }
+                final String key = parser.getAttributeValue(ANDROID_NS, "key");
+                if (key == null || title == null) {
+                    continue;
+                }
+                String summary = getText(res, parser, "summary");
+                if (summary != null && summary.contains("%s")) {
+                    // Filled in with the current entry, nothing to search in
+                    summary = null;
+                }
+
+                final LinkedHashSet<String> tokens = tokenize(title);
+                tokens.addAll(tokenize(key));
+                if (summary != null) {
+                    tokens.addAll(tokenize(summary));
+                }
+                final int entriesRes = parser.getAttributeResourceValue(ANDROID_NS,
+                        "entries", 0);
+                if (entriesRes != 0) {
+                    for (CharSequence entry : res.getTextArray(entriesRes)) {
+                        tokens.addAll(tokenize(entry.toString()));
+                    }
+                }
+                section.docs.add(new Result(screen, section.title, key, title, summary,
+                        parser.getAttributeValue(ANDROID_NS, "fragment"),
+                        tokens.toArray(new String[tokens.size()])));
+            }
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(TAG, "Failed to index screen " + screen.xmlResId, e);
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+        return section != null ? section : new Section(fingerprint, "");
+    }
+
+    private static String getText(Resources res, XmlResourceParser parser, String name) {
+        final int resId = parser.getAttributeResourceValue(ANDROID_NS, name, 0);
+        if (resId != 0) {
+            return res.getText(resId).toString();
+        }
+        return parser.getAttributeValue(ANDROID_NS, name);
+    }
+
+    /**
+     * Splits text into lower case words without accents, so "Relógio" is
+     * found by "relo".
+     */
+    static LinkedHashSet<String> tokenize(String text) {
+        final LinkedHashSet<String> tokens = new LinkedHashSet<String>();
+        final String normalized = Normalizer.normalize(text.toLowerCase(Locale.getDefault()),
+                Normalizer.Form.NFD).replaceAll("\\p{M}+", "");
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            final boolean letter = i < normalized.length()
+                    && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                tokens.add(normalized.substring(start, i));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Checksums everything {@link #parseScreen} reads from a screen: its tags,
+     * attributes, and the strings and arrays they reference in the current
+     * locale. Cheaper than parsing, as nothing is tokenized. Returns null if
+     * the screen can't be read, so it is always parsed again.
+     */
+    private static String getFingerprint(Resources res, Screen screen) {
+        final CRC32 crc = new CRC32();
+        XmlResourceParser parser = null;
+        try {
+            parser = res.getXml(screen.xmlResId);
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                update(crc, parser.getName());
+                for (int i = 0; i < parser.getAttributeCount(); i++) {
+                    update(crc, parser.getAttributeName(i));
+                    final int resId = parser.getAttributeResourceValue(i, 0);
+                    final String resType = resId != 0 ? res.getResourceTypeName(resId) : null;
+                    if ("string".equals(resType)) {
+                        update(crc, res.getText(resId).toString());
+                    } else if ("array".equals(resType)) {
+                        for (CharSequence entry : res.getTextArray(resId)) {
+                            update(crc, entry.toString());
+                        }
+                    } else {
+                        update(crc, parser.getAttributeValue(i));
+                    }
+                }
+            }
+        } catch (XmlPullParserException | IOException | Resources.NotFoundException e) {
+            return null;
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+        return Locale.getDefault().toLanguageTag() + '/' + Long.toHexString(crc.getValue());
+    }
+
+    private static void update(CRC32 crc, String value) {
+        if (value != null) {
+            crc.update(value.getBytes(StandardCharsets.UTF_8));
+        }
+        // Separates values, so "ab" "c" and "a" "bc" differ
+        crc.update(0);
+    }
+
+    private static String getStamp(Context context) {
+        // An APK update restarts the process, so asking once is enough
+        if (sApkUpdateTime < 0) {
+            try {
+                sApkUpdateTime = context.getPackageManager()
+                        .getPackageInfo(context.getPackageName(), 0).lastUpdateTime;
+            } catch (PackageManager.NameNotFoundException e) {
+                sApkUpdateTime = 0;
+            }
+        }
+        return context.getResources().getConfiguration().getLocales().toLanguageTags()
+                + '/' + sApkUpdateTime;
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value)
+            throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+}
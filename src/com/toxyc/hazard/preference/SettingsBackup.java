@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.content.ContentResolver;
+import android.content.Context;
+
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+/**
+ * Exports and restores every Hazard managed setting as one compact stream.
+ *
+ * <pre>
+ * int    magic "HZRD"
+ * short  format version
+ * per namespace:
+ *   UTF  namespace name
+ *   int  number of entries
+ *   per entry: UTF key, boolean set, UTF value if set
+ * UTF    "" to end the stream
+ * </pre>
+ *
+ * Namespaces and keys are stored by name, so a backup stays readable across
+ * builds; ones this build doesn't manage are skipped on restore. Each
+ * namespace is restored as one {@link SettingsTransaction}. The Profiles
+ * screen exports and imports it through the storage access framework.
+ */
+public final class SettingsBackup {
+    private static final int MAGIC = 0x485a5244;
+    private static final int VERSION = 1;
+
+    private SettingsBackup() {
+    }
+
+    /**
+     * Returns the keys Hazard manages in {@code namespace}, as listed in
+     * {@link SettingsSchema}.
+     */
+    public static List<String> getManagedKeys(Namespace namespace) {
+        final ArrayList<String> keys = new ArrayList<String>();
+        for (SettingsSchema.Key key : SettingsSchema.getKeys()) {
+            if (key.namespace == namespace) {
+                keys.add(key.name);
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * Writes all managed keys of the current user to {@code out}, which is
+     * flushed but left open.
+     *
+     * @return the number of keys written
+     */
+    public static int write(Context context, OutputStream out) throws IOException {
+        final ContentResolver resolver = context.getContentResolver();
+        prefetchManagedKeys(context);
+
+        final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+        data.writeInt(MAGIC);
+        data.writeShort(VERSION);
+        int written = 0;
+        for (Namespace namespace : Namespace.values()) {
+            final List<String> keys = getManagedKeys(namespace);
+            if (keys.isEmpty()) {
+                continue;
+            }
+            final SettingsStore store = new SettingsStore(resolver, namespace);
+            data.writeUTF(namespace.getName());
+            data.writeInt(keys.size());
+            for (String key : keys) {
+                final String value = store.getString(key, null);
+                data.writeUTF(key);
+                data.writeBoolean(value != null);
+                if (value != null) {
+                    data.writeUTF(value);
+                }
+            }
+            written += keys.size();
+        }
+        data.writeUTF("");
+        data.flush();
+        return written;
+    }
+
+    /**
+     * Restores the keys in {@code in} for the current user. Keys that are
+     * unset in the backup are deleted, so they read back as their default.
+     * Each namespace is written in one provider call.
+     *
+     * @return the number of keys that changed
+     * @throws IOException if the stream is not a backup this build can read
+     */
+    public static int read(Context context, InputStream in) throws IOException {
+        final ContentResolver resolver = context.getContentResolver();
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a Hazard settings backup");
+        }
+        final int version = data.readUnsignedShort();
+        if (version > VERSION) {
+            throw new IOException("Unsupported backup version " + version);
+        }
+        // Transactions compare against the current values, load them in bulk
+        prefetchManagedKeys(context);
+
+        int changed = 0;
+        String name;
+        while (!(name = data.readUTF()).isEmpty()) {
+            final Namespace namespace = namespaceForName(name);
+            final HashSet<String> managed = namespace != null
+                    ? new HashSet<String>(getManagedKeys(namespace)) : null;
+            final SettingsTransaction transaction = namespace != null
+                    ? new SettingsStore(resolver, namespace).beginTransaction() : null;
+            final int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                final String key = data.readUTF();
+                final String value = data.readBoolean() ? data.readUTF() : null;
+                if (managed != null && managed.contains(key)) {
+                    transaction.putString(key, value);
+                }
+            }
+            if (transaction != null) {
+                changed += transaction.apply().size();
+            }
+        }
+        return changed;
+    }
+
+    private static void prefetchManagedKeys(Context context) {
+        final SettingsPrefetcher prefetcher = new SettingsPrefetcher(context);
+        for (Namespace namespace : Namespace.values()) {
+            final List<String> keys = getManagedKeys(namespace);
+            prefetcher.add(namespace, keys.toArray(new String[keys.size()]));
+        }
+        prefetcher.prefetch();
+    }
+
+    private static Namespace namespaceForName(String name) {
+        for (Namespace namespace : Namespace.values()) {
+            if (namespace.getName().equals(name)) {
+                return namespace;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.app.ActivityThread;
+import android.app.Application;
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.UserHandle;
+
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide read-through cache of raw settings values. Entries are keyed by
+ * namespace, user and key, and are dropped as soon as the settings provider
+ * reports a change for them, so a cached value is never older than the last
+ * change notification we received. Entries read for
+ * {@link UserHandle#USER_CURRENT} are dropped when the foreground user changes.
+ */
+final class SettingsCache {
+
+    // Stored for keys the provider has no value for, as the map can't hold null.
+    // Compared by identity only.
+    private static final String ABSENT = new String("<absent>");
+
+    private static final ConcurrentHashMap<String, String> sValues =
+            new ConcurrentHashMap<String, String>();
+
+    private static final AtomicLong sHits = new AtomicLong();
+    private static final AtomicLong sMisses = new AtomicLong();
+
+    // Bumped on every invalidation and write, so a load that raced with a
+    // change doesn't put a stale value back into the cache.
+    private static final AtomicLong sGeneration = new AtomicLong();
+
+    private static final EnumMap<Namespace, ContentObserver> sObservers =
+            new EnumMap<Namespace, ContentObserver>(Namespace.class);
+    private static boolean sObservingUserSwitch;
+
+    private SettingsCache() {
+    }
+
+    static synchronized void ensureObserving(ContentResolver resolver, Namespace namespace) {
+        if (!sObservingUserSwitch) {
+            // Stores only get a resolver, the cache lives as long as the process
+            final Application app = ActivityThread.currentApplication();
+            if (app != null) {
+                app.registerReceiver(new BroadcastReceiver() {
+                    @Override
+                    public void onReceive(Context context, Intent intent) {
+                        invalidateUser(UserHandle.USER_CURRENT);
+                    }
+                }, new IntentFilter(Intent.ACTION_USER_SWITCHED));
+                sObservingUserSwitch = true;
+            }
+        }
+        if (sObservers.containsKey(namespace)) {
+            return;
+        }
+        ContentObserver observer = new InvalidatingObserver(namespace);
+        resolver.registerContentObserver(namespace.getUri(), true, observer,
+                UserHandle.USER_ALL);
+        sObservers.put(namespace, observer);
+    }
+
+    /**
+     * @param userId a resolved user id, see {@link SettingsStore#resolveUserId}
+     */
+    static String cacheKey(Namespace namespace, int userId, String key) {
+        return namespace.getName() + '/' + userId + '/' + key;
+    }
+
+    static boolean contains(String cacheKey) {
+        return sValues.containsKey(cacheKey);
+    }
+
+    /**
+     * Returns the cached value for {@code cacheKey}, loading it through
+     * {@code loader} on a miss. A {@code null} result means the key is unset.
+     */
+    static String get(String cacheKey, Loader loader) {
+        String value = sValues.get(cacheKey);
+        if (value != null) {
+            sHits.incrementAndGet();
+            return value == ABSENT ? null : value;
+        }
+        sMisses.incrementAndGet();
+        final long generation = sGeneration.get();
+        value = loader.load();
+        store(cacheKey, value, generation);
+        return value;
+    }
+
+    /**
+     * Records a value we just wrote ourselves, so reading it back is free.
+     */
+    static void put(String cacheKey, String value) {
+        synchronized (sGeneration) {
+            sGeneration.incrementAndGet();
+            sValues.put(cacheKey, value == null ? ABSENT : value);
+        }
+    }
+
+    static void invalidate(String cacheKey) {
+        synchronized (sGeneration) {
+            sGeneration.incrementAndGet();
+            sValues.remove(cacheKey);
+        }
+    }
+
+    static void invalidateAll(Namespace namespace) {
+        final String prefix = namespace.getName() + '/';
+        synchronized (sGeneration) {
+            sGeneration.incrementAndGet();
+            for (String cacheKey : sValues.keySet()) {
+                if (cacheKey.startsWith(prefix)) {
+                    sValues.remove(cacheKey);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops the entries of {@code userId} in every namespace.
+     */
+    static void invalidateUser(int userId) {
+        final String infix = "/" + userId + '/';
+        synchronized (sGeneration) {
+            sGeneration.incrementAndGet();
+            for (String cacheKey : sValues.keySet()) {
+                if (cacheKey.startsWith(infix, cacheKey.indexOf('/'))) {
+                    sValues.remove(cacheKey);
+                }
+            }
+        }
+    }
+
+    static long getHitCount() {
+        return sHits.get();
+    }
+
+    static long getMissCount() {
+        return sMisses.get();
+    }
+
+    static void resetStats() {
+        sHits.set(0);
+        sMisses.set(0);
+    }
+
+    static long getGeneration() {
+        return sGeneration.get();
+    }
+
+    /**
+     * Stores a value loaded from the provider, unless the cache was invalidated
+     * since {@code generation} was read, as the value may be stale by now.
+     */
+    static void store(String cacheKey, String value, long generation) {
+        synchronized (sGeneration) {
+            if (sGeneration.get() == generation) {
+                sValues.put(cacheKey, value == null ? ABSENT : value);
+            }
+        }
+    }
+
+    interface Loader {
+        String load();
+    }
+
+    private static class InvalidatingObserver extends ContentObserver {
+        private final Namespace mNamespace;
+
+        InvalidatingObserver(Namespace namespace) {
+            // No handler: changes are delivered on a binder thread, which is
+            // fine as all cache state is thread safe.
+            super(null);
+            mNamespace = namespace;
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri, int userId) {
+            final String key = uri != null ? uri.getLastPathSegment() : null;
+            if (key == null || key.equals(mNamespace.getName())
+                    || userId == UserHandle.USER_ALL) {
+                invalidateAll(mNamespace);
+            } else {
+                invalidate(cacheKey(mNamespace,
+                        SettingsStore.resolveUserId(mNamespace, userId), key));
+                // We don't track which user USER_CURRENT entries were read for
+                invalidate(cacheKey(mNamespace,
+                        SettingsStore.resolveUserId(mNamespace, UserHandle.USER_CURRENT), key));
+            }
+        }
+    }
+}
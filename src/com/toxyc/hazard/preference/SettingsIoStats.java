@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Latency histograms for settings I/O, per operation and namespace and per
+ * operation and key. {@link #READ} and {@link #WRITE} time every call into a
+ * {@link SettingsStore}, cache hits and queued writes included, while the
+ * provider operations only time actual trips to the settings provider.
+ *
+ * Per namespace histograms are always recorded, without allocating. Per key
+ * ones build a key string for every call, so they are only recorded after
+ * {@link #setPerKeyEnabled}.
+ */
+public final class SettingsIoStats {
+    public static final String READ = "read";
+    public static final String WRITE = "write";
+    public static final String PROVIDER_READ = "provider_read";
+    public static final String PROVIDER_WRITE = "provider_write";
+    public static final String PROVIDER_QUERY = "provider_query";
+
+    // Operation, then namespace
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, LatencyHistogram>>
+            sNamespaces = new ConcurrentHashMap<String,
+                    ConcurrentHashMap<String, LatencyHistogram>>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> sKeys =
+            new ConcurrentHashMap<String, LatencyHistogram>();
+    private static volatile boolean sPerKeyEnabled;
+
+    private SettingsIoStats() {
+    }
+
+    /**
+     * @param key the settings key, or null for operations that span a table
+     * @param startNanos {@link System#nanoTime()} taken when the operation started
+     */
+    public static void record(String operation, String namespace, String key,
+            long startNanos) {
+        final long nanos = System.nanoTime() - startNanos;
+        histogram(namespaces(operation), namespace).record(nanos);
+        if (key != null && sPerKeyEnabled) {
+            histogram(sKeys, operation + ' ' + namespace + '/' + key).record(nanos);
+        }
+        if (PROVIDER_READ.equals(operation) || PROVIDER_WRITE.equals(operation)
+                || PROVIDER_QUERY.equals(operation)) {
+            ScreenTrace.addProviderTime(nanos);
+        }
+    }
+
+    public static LatencyHistogram getNamespaceHistogram(String operation, String namespace) {
+        final ConcurrentHashMap<String, LatencyHistogram> namespaces = sNamespaces.get(operation);
+        return namespaces != null ? namespaces.get(namespace) : null;
+    }
+
+    public static LatencyHistogram getKeyHistogram(String operation, String namespace,
+            String key) {
+        return sKeys.get(operation + ' ' + namespace + '/' + key);
+    }
+
+    public static void setPerKeyEnabled(boolean enabled) {
+        sPerKeyEnabled = enabled;
+    }
+
+    public static boolean isPerKeyEnabled() {
+        return sPerKeyEnabled;
+    }
+
+    public static void reset() {
+        for (ConcurrentHashMap<String, LatencyHistogram> namespaces : sNamespaces.values()) {
+            for (LatencyHistogram histogram : namespaces.values()) {
+                histogram.reset();
+            }
+        }
+        for (LatencyHistogram histogram : sKeys.values()) {
+            histogram.reset();
+        }
+    }
+
+    public static void dump(String prefix, PrintWriter writer) {
+        writer.print(prefix);
+        writer.println("Settings I/O latency:");
+        final ArrayList<String> operations = new ArrayList<String>(sNamespaces.keySet());
+        Collections.sort(operations);
+        for (String operation : operations) {
+            dump(prefix + "  " + operation + ' ', writer, sNamespaces.get(operation));
+        }
+        writer.print(prefix);
+        writer.println("Settings I/O latency per key"
+                + (sPerKeyEnabled ? ":" : " (off):"));
+        dump(prefix + "  ", writer, sKeys);
+    }
+
+    private static void dump(String prefix, PrintWriter writer,
+            ConcurrentHashMap<String, LatencyHistogram> histograms) {
+        final ArrayList<String> names = new ArrayList<String>(histograms.keySet());
+        Collections.sort(names);
+        for (String name : names) {
+            final LatencyHistogram histogram = histograms.get(name);
+            if (histogram.getCount() == 0) {
+                continue;
+            }
+            writer.print(prefix);
+            writer.print(name);
+            writer.print(": ");
+            writer.println(histogram);
+        }
+    }
+
+    private static ConcurrentHashMap<String, LatencyHistogram> namespaces(String operation) {
+        ConcurrentHashMap<String, LatencyHistogram> namespaces = sNamespaces.get(operation);
+        if (namespaces == null) {
+            namespaces = new ConcurrentHashMap<String, LatencyHistogram>();
+            final ConcurrentHashMap<String, LatencyHistogram> existing =
+                    sNamespaces.putIfAbsent(operation, namespaces);
+            if (existing != null) {
+                namespaces = existing;
+            }
+        }
+        return namespaces;
+    }
+
+    private static LatencyHistogram histogram(
+            ConcurrentHashMap<String, LatencyHistogram> histograms, String name) {
+        LatencyHistogram histogram = histograms.get(name);
+        if (histogram == null) {
+            histogram = new LatencyHistogram();
+            final LatencyHistogram existing = histograms.putIfAbsent(name, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        return histogram;
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.os.AsyncTask;
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * Runs a {@link SettingsPrefetcher} on a background thread and tells the
+ * caller on the main thread once every key is cached, so a fragment can bind
+ * its values without touching the provider on the UI thread.
+ *
+ * Until then, preferences show what they last persisted to their shared
+ * preferences, which is the value they were last bound to.
+ *
+ * <pre>
+ * mLoader = new SettingsLoader(new SettingsPrefetcher(getActivity())
+ *         .addScreen(R.xml.batterys_settings));
+ * mLoader.load(new SettingsLoader.OnLoadedListener() { ... });
+ * </pre>
+ */
+public final class SettingsLoader {
+
+    public interface OnLoadedListener {
+        /** Called on the main thread, reads from a settings store are cache hits now */
+        void onSettingsLoaded();
+    }
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+
+    private final SettingsPrefetcher mPrefetcher;
+    private OnLoadedListener mListener;
+    private boolean mLoaded;
+
+    public SettingsLoader(SettingsPrefetcher prefetcher) {
+        mPrefetcher = prefetcher;
+    }
+
+    /**
+     * Starts loading. When everything is cached already, the listener is
+     * called right away so the first frame has the real values.
+     */
+    public void load(OnLoadedListener listener) {
+        mListener = listener;
+        if (mPrefetcher.isCached()) {
+            deliver();
+            return;
+        }
+        final String caller = ScreenTrace.getCurrentSectionName();
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                final ScreenTrace.Section section = ScreenTrace.begin(
+                        caller != null ? caller + " async load" : "async load");
+                try {
+                    mPrefetcher.prefetch();
+                } finally {
+                    section.end();
+                }
+                sMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver();
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Drops the listener, call this when the fragment goes away before the
+     * values arrived.
+     */
+    public void cancel() {
+        mListener = null;
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    private void deliver() {
+        final OnLoadedListener listener = mListener;
+        mListener = null;
+        if (listener != null) {
+            mLoaded = true;
+            listener.onSettingsLoaded();
+        }
+    }
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.app.ActivityManager;
+import android.content.ContentProvider;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.res.XmlResourceParser;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+
+import org.xmlpull.v1.XmlPullParser;
+import org.xmlpull.v1.XmlPullParserException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Loads every key a screen is about to read into the {@link SettingsCache} with
+ * one provider query per settings table, instead of one query per preference
+ * as they bind. Call {@link #prefetch()} before adding the preferences.
+ *
+ * Keys the framework moved to another table are skipped, a raw query of their
+ * old table would miss the redirect. They are read one by one as before.
+ *
+ * <pre>
+ * new SettingsPrefetcher(getActivity())
+ *         .addScreen(R.xml.batterys_settings)
+ *         .add(Namespace.SECURE, Settings.Secure.STATUS_BAR_BATTERY_STYLE)
+ *         .prefetch();
+ * </pre>
+ */
+public final class SettingsPrefetcher {
+    private static final String TAG = "SettingsPrefetcher";
+
+    private static final String ANDROID_NS = "http://schemas.android.com/apk/res/android";
+
+    private static final String[] PROJECTION = new String[] {
+            Settings.NameValueTable.NAME, Settings.NameValueTable.VALUE };
+
+    // Keys declared by each preference screen, so the XML is only walked once
+    private static final SparseArray<List<Request>> sScreenKeys =
+            new SparseArray<List<Request>>();
+
+    private final Context mContext;
+    private final ArrayList<Request> mRequests = new ArrayList<Request>();
+
+    public SettingsPrefetcher(Context context) {
+        mContext = context;
+    }
+
+    /**
+     * Adds every key declared in the given preference screen. Keys of
+     * Secure and Global preferences go to their tables, anything else is
+     * looked up in Settings.System.
+     */
+    public SettingsPrefetcher addScreen(int xmlResId) {
+        List<Request> keys;
+        synchronized (sScreenKeys) {
+            keys = sScreenKeys.get(xmlResId);
+            if (keys == null) {
+                keys = parseScreen(xmlResId);
+                sScreenKeys.put(xmlResId, keys);
+            }
+        }
+        mRequests.addAll(keys);
+        return this;
+    }
+
+    public SettingsPrefetcher add(Namespace namespace, String... keys) {
+        return add(namespace, UserHandle.myUserId(), keys);
+    }
+
+    public SettingsPrefetcher add(Namespace namespace, int userId, String... keys) {
+        for (String key : keys) {
+            if (!namespace.isMoved(key)) {
+                mRequests.add(new Request(namespace, userId, key));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether every requested key is cached already, in which case
+     * {@link #prefetch()} would not query anything.
+     */
+    public boolean isCached() {
+        for (Request request : mRequests) {
+            if (!SettingsCache.contains(request.getCacheKey())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Queries each table that has keys missing from the cache once, and caches
+     * the result for all requested keys, including the ones that are unset.
+     */
+    public void prefetch() {
+        final ContentResolver resolver = mContext.getContentResolver();
+        final HashMap<String, Query> queries = new HashMap<String, Query>();
+        int currentUser = UserHandle.USER_NULL;
+
+        for (Request request : mRequests) {
+            SettingsCache.ensureObserving(resolver, request.namespace);
+            if (SettingsCache.contains(request.getCacheKey())) {
+                continue;
+            }
+            int providerUserId = request.userId;
+            if (request.namespace == Namespace.GLOBAL) {
+                // Same table for everyone, no need to query as another user
+                providerUserId = UserHandle.myUserId();
+            } else if (providerUserId == UserHandle.USER_CURRENT) {
+                if (currentUser == UserHandle.USER_NULL) {
+                    currentUser = ActivityManager.getCurrentUser();
+                }
+                providerUserId = currentUser;
+            }
+            final String id = request.namespace.getName() + '/' + providerUserId;
+            Query query = queries.get(id);
+            if (query == null) {
+                query = new Query(request.namespace, providerUserId);
+                queries.put(id, query);
+            }
+            query.requests.add(request);
+        }
+
+        for (Query query : queries.values()) {
+            query.run(resolver);
+        }
+        mRequests.clear();
+    }
+
+    private List<Request> parseScreen(int xmlResId) {
+        final ArrayList<Request> keys = new ArrayList<Request>();
+        final int userId = UserHandle.myUserId();
+        XmlResourceParser parser = null;
+        try {
+            parser = mContext.getResources().getXml(xmlResId);
+            int type;
+            while ((type = parser.next()) != XmlPullParser.END_DOCUMENT) {
+                if (type != XmlPullParser.START_TAG) {
+                    continue;
+                }
+                final String key = parser.getAttributeValue(ANDROID_NS, "key");
+                if (key == null) {
+                    continue;
+                }
+                final Namespace namespace = namespaceForTag(parser.getName());
+                if (!namespace.isMoved(key)) {
+                    keys.add(new Request(namespace, userId, key));
+                }
+            }
+        } catch (XmlPullParserException | IOException e) {
+            Log.w(TAG, "Failed to collect keys of screen " + xmlResId, e);
+        } finally {
+            if (parser != null) {
+                parser.close();
+            }
+        }
+        return keys;
+    }
+
+    private static Namespace namespaceForTag(String tag) {
+        final String name = tag.substring(tag.lastIndexOf('.') + 1);
+        if (name.startsWith("Secure")) {
+            return Namespace.SECURE;
+        } else if (name.startsWith("Global")) {
+            return Namespace.GLOBAL;
+        }
+        return Namespace.SYSTEM;
+    }
+
+    /**
+     * One bulk query, covering all requested keys of a table for one user.
+     */
+    private static final class Query {
+        final Namespace namespace;
+        final int providerUserId;
+        final ArrayList<Request> requests = new ArrayList<Request>();
+
+        Query(Namespace namespace, int providerUserId) {
+            this.namespace = namespace;
+            this.providerUserId = providerUserId;
+        }
+
+        void run(ContentResolver resolver) {
+            Uri uri = namespace.getUri();
+            if (providerUserId != UserHandle.myUserId()) {
+                uri = ContentProvider.maybeAddUserId(uri, providerUserId);
+            }
+
+            final HashMap<String, String> wanted = new HashMap<String, String>();
+            for (Request request : requests) {
+                wanted.put(request.key, null);
+            }
+
+            final long generation = SettingsCache.getGeneration();
+            final long start = System.nanoTime();
+            Cursor cursor = null;
+            try {
+                cursor = resolver.query(uri, PROJECTION, null, null, null);
+                if (cursor == null) {
+                    return;
+                }
+                while (cursor.moveToNext()) {
+                    final String name = cursor.getString(0);
+                    if (wanted.containsKey(name)) {
+                        wanted.put(name, cursor.getString(1));
+                    }
+                }
+            } catch (RuntimeException e) {
+                // Not fatal, preferences will read their keys one by one instead
+                Log.w(TAG, "Bulk query of " + uri + " failed", e);
+                return;
+            } finally {
+                if (cursor != null) {
+                    cursor.close();
+                }
+                SettingsIoStats.record(SettingsIoStats.PROVIDER_QUERY, namespace.getName(),
+                        null, start);
+            }
+
+            for (Request request : requests) {
+                SettingsCache.store(request.getCacheKey(), wanted.get(request.key),
+                        generation);
+            }
+        }
+    }
+
+    private static final class Request {
+        final Namespace namespace;
+        final int userId;
+        final String key;
+
+        Request(Namespace namespace, int userId, String key) {
+            this.namespace = namespace;
+            this.userId = SettingsStore.resolveUserId(namespace, userId);
+            this.key = key;
+        }
+
+        String getCacheKey() {
+            return SettingsCache.cacheKey(namespace, userId, key);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.content.Context;
+import android.net.Uri;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Named snapshots of all Hazard managed settings, such as "daily" or
+ * "battery saver look". Profiles are stored in the {@link SettingsBackup}
+ * format, and applying one only writes the keys that differ from the current
+ * values, one transaction per namespace.
+ */
+public final class SettingsProfiles {
+    private static final String DIRECTORY = "hazard_profiles";
+    private static final String SUFFIX = ".profile";
+
+    private SettingsProfiles() {
+    }
+
+    public static List<String> getNames(Context context) {
+        final ArrayList<String> names = new ArrayList<String>();
+        final String[] files = getDirectory(context).list();
+        if (files != null) {
+            for (String file : files) {
+                if (file.endsWith(SUFFIX)) {
+                    names.add(Uri.decode(file.substring(0, file.length() - SUFFIX.length())));
+                }
+            }
+        }
+        Collections.sort(names, String.CASE_INSENSITIVE_ORDER);
+        return names;
+    }
+
+    /**
+     * Saves the current values under {@code name}, replacing any profile of
+     * the same name.
+     */
+    public static void save(Context context, String name) throws IOException {
+        final File file = getFile(context, name);
+        final File temp = new File(file.getPath() + ".tmp");
+        final FileOutputStream out = new FileOutputStream(temp);
+        try {
+            SettingsBackup.write(context, out);
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to save profile " + name);
+        }
+    }
+
+    /**
+     * @return the number of settings that changed
+     */
+    public static int apply(Context context, String name) throws IOException {
+        final FileInputStream in = new FileInputStream(getFile(context, name));
+        try {
+            return SettingsBackup.read(context, in);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static boolean delete(Context context, String name) {
+        return getFile(context, name).delete();
+    }
+
+    private static File getDirectory(Context context) {
+        final File directory = new File(context.getFilesDir(), DIRECTORY);
+        directory.mkdirs();
+        return directory;
+    }
+
+    private static File getFile(Context context, String name) {
+        // Encoded, so any name is a valid file name
+        return new File(getDirectory(context), Uri.encode(name) + SUFFIX);
+    }
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.provider.Settings;
+
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Typed schema of every setting Hazard manages: its table, type, default and,
+ * for numbers, range. It mirrors what res/xml and the fragments declare, so
+ * a new setting needs an entry here as well.
+ *
+ * Keys are numbered in declaration order and are looked up by
+ * {@link Key#index}. Preferences declared in XML name their entry by that
+ * index, and {@link #checkPreference} fails when the two don't agree.
+ */
+public final class SettingsSchema {
+
+    public enum Type {
+        BOOLEAN,
+        INT,
+        STRING
+    }
+
+    public static final class Key {
+        public final int index;
+        public final Namespace namespace;
+        public final String name;
+        public final Type type;
+        /** Key of the preference showing this setting, or null if there is none */
+        public final String preferenceKey;
+        /** Raw default as stored in the provider, null if unset by default */
+        public final String defaultValue;
+        public final int min;
+        public final int max;
+        public final int interval;
+
+        private Key(int index, Namespace namespace, String name, Type type,
+                String preferenceKey, String defaultValue, int min, int max, int interval) {
+            this.index = index;
+            this.namespace = namespace;
+            this.name = name;
+            this.type = type;
+            this.preferenceKey = preferenceKey;
+            this.defaultValue = defaultValue;
+            this.min = min;
+            this.max = max;
+            this.interval = interval;
+        }
+
+        public boolean getDefaultBoolean() {
+            return defaultValue != null && !"0".equals(defaultValue);
+        }
+
+        public int getDefaultInt() {
+            return defaultValue != null ? Integer.parseInt(defaultValue) : 0;
+        }
+
+        @Override
+        public String toString() {
+            return namespace.getName() + '/' + name;
+        }
+    }
+
+    private static final ArrayList<Key> sKeys = new ArrayList<Key>();
+
+    // Quick settings, 0 to 3 are named by settings:schemaIndex in quick_settings.xml
+    public static final Key QS_ROWS_PORTRAIT = intKey(Namespace.SYSTEM,
+            Settings.System.QS_ROWS_PORTRAIT, "qs_rows_portrait", 3, 1, 5);
+    public static final Key QS_ROWS_LANDSCAPE = intKey(Namespace.SYSTEM,
+            Settings.System.QS_ROWS_LANDSCAPE, "qs_rows_landscape", 2, 1, 3);
+    public static final Key QS_COLUMNS_PORTRAIT = intKey(Namespace.SYSTEM,
+            Settings.System.QS_COLUMNS_PORTRAIT, "qs_columns_portrait", 5, 1, 7);
+    public static final Key QS_COLUMNS_LANDSCAPE = intKey(Namespace.SYSTEM,
+            Settings.System.QS_COLUMNS_LANDSCAPE, "qs_columns_landscape", 5, 1, 9);
+    public static final Key QS_SHOW_BRIGHTNESS = booleanKey(Namespace.SECURE,
+            "qs_show_brightness", true);
+    public static final Key QS_SHOW_BRIGHTNESS_ICON = booleanKey(Namespace.SYSTEM,
+            "qs_show_brightness_icon", true);
+
+    // Status bar clock and date
+    public static final Key STATUS_BAR_CLOCK_DATE_POSITION = intKey(Namespace.SYSTEM,
+            Settings.System.STATUS_BAR_CLOCK_DATE_POSITION, "clock_date_position", 1, 0, 2);
+    public static final Key STATUS_BAR_CLOCK_SHOW_SECONDS = booleanKey(Namespace.SYSTEM,
+            Settings.System.STATUS_BAR_CLOCK_SHOW_SECONDS, "clock_date_show_seconds", false);
+    public static final Key STATUS_BAR_CLOCK_SHOW_DATE = booleanKey(Namespace.SYSTEM,
+            Settings.System.STATUS_BAR_CLOCK_SHOW_DATE, "clock_date_show_date", false);
+    public static final Key STATUS_BAR_CLOCK_DATE_FORMAT = stringKey(Namespace.SYSTEM,
+            Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT, "clock_date_date_format", "EEE");
+    public static final Key STATUS_BAR_CLOCK_DATE_STYLE = intKey(Namespace.SYSTEM,
+            Settings.System.STATUS_BAR_CLOCK_DATE_STYLE, "clock_date_date_style", 0, 0, 2);
+    public static final Key STATUS_BAR_CLOCK_DATE_SIZE_SMALL = booleanKey(Namespace.SYSTEM,
+            Settings.System.STATUS_BAR_CLOCK_DATE_SIZE_SMALL, "clock_date_date_size_small",
+            false);
+
+    // Status bar
+    public static final Key STATUS_BAR_BATTERY_STYLE = intKey(Namespace.SECURE,
+            Settings.Secure.STATUS_BAR_BATTERY_STYLE, "battery_style", 0,
+            0, Integer.MAX_VALUE);
+    public static final Key SHOW_BATTERY_PERCENT = intKey(Namespace.SYSTEM,
+            Settings.System.SHOW_BATTERY_PERCENT, "show_battery_percent", 0,
+            0, Integer.MAX_VALUE);
+    public static final Key STATUS_BAR_CARRIER = intKey(Namespace.SYSTEM,
+            Settings.System.STATUS_BAR_CARRIER, "status_bar_carrier", 0,
+            0, Integer.MAX_VALUE);
+    public static final Key CUSTOM_CARRIER_LABEL = stringKey(Namespace.SYSTEM,
+            Settings.System.CUSTOM_CARRIER_LABEL, "custom_carrier_label", null);
+    public static final Key STATUS_BAR_SHOW_TICKER = intKey(Namespace.SYSTEM,
+            Settings.System.STATUS_BAR_SHOW_TICKER, "ticker_mode", 1, 0, Integer.MAX_VALUE);
+    public static final Key STATUS_BAR_LOGO = intKey(Namespace.SYSTEM,
+            "status_bar_logo", "status_bar_logo", 0, 0, Integer.MAX_VALUE);
+
+    // Recents
+    public static final Key RECENTS_LAYOUT_STYLE = intKey(Namespace.SYSTEM,
+            Settings.System.RECENTS_LAYOUT_STYLE, "recents_layout_style", 0,
+            0, Integer.MAX_VALUE);
+    public static final Key RECENTS_CLEAR_ALL_LOCATION = intKey(Namespace.SYSTEM,
+            Settings.System.RECENTS_CLEAR_ALL_LOCATION, "recents_clear_all_location", 5,
+            0, Integer.MAX_VALUE);
+    public static final Key SHOW_CLEAR_ALL_RECENTS = booleanKey(Namespace.SYSTEM,
+            "show_clear_all_recents", true);
+
+    // Lockscreen
+    public static final Key LOCKSCREEN_CLOCK_SELECTION = intKey(Namespace.SYSTEM,
+            Settings.System.LOCKSCREEN_CLOCK_SELECTION, "lockscreen_clock_selection", 0,
+            0, Integer.MAX_VALUE);
+    public static final Key LOCKSCREEN_DATE_SELECTION = intKey(Namespace.SYSTEM,
+            Settings.System.LOCKSCREEN_DATE_SELECTION, "lockscreen_date_selection", 0,
+            0, Integer.MAX_VALUE);
+    public static final Key HIDE_LOCKSCREEN_CLOCK = booleanKey(Namespace.SYSTEM,
+            "hide_lockscreen_clock", true);
+    public static final Key HIDE_LOCKSCREEN_DATE = booleanKey(Namespace.SYSTEM,
+            "hide_lockscreen_date", true);
+    public static final Key HIDE_LOCKSCREEN_ALARM = booleanKey(Namespace.SYSTEM,
+            "hide_lockscreen_alarm", true);
+
+    // Buttons
+    public static final Key HARDWARE_KEYS_DISABLE = booleanKey(Namespace.SECURE,
+            Settings.Secure.HARDWARE_KEYS_DISABLE, null, false);
+    public static final Key BACK_WAKE_SCREEN = booleanKey(Namespace.SYSTEM,
+            Settings.System.BACK_WAKE_SCREEN, false);
+    public static final Key HOME_WAKE_SCREEN = booleanKey(Namespace.SYSTEM,
+            Settings.System.HOME_WAKE_SCREEN, false);
+    public static final Key APP_SWITCH_WAKE_SCREEN = booleanKey(Namespace.SYSTEM,
+            Settings.System.APP_SWITCH_WAKE_SCREEN, false);
+    public static final Key MENU_WAKE_SCREEN = booleanKey(Namespace.SYSTEM,
+            Settings.System.MENU_WAKE_SCREEN, false);
+    public static final Key ASSIST_WAKE_SCREEN = booleanKey(Namespace.SYSTEM,
+            Settings.System.ASSIST_WAKE_SCREEN, false);
+    public static final Key SWAP_VOLUME_BUTTONS = booleanKey(Namespace.SYSTEM,
+            "swap_volume_buttons", false);
+    public static final Key VOLUME_KEYS_CONTROL_MEDIA_STREAM = booleanKey(Namespace.SYSTEM,
+            "volume_keys_control_media_stream", false);
+    public static final Key VOLUME_BUTTON_MUSIC_CONTROL = booleanKey(Namespace.SYSTEM,
+            "volume_button_music_control", false);
+    public static final Key VOLUME_ROCKER_WAKE = booleanKey(Namespace.SYSTEM,
+            "volume_rocker_wake", false);
+    public static final Key CALL_VOLUME_ANSWER = booleanKey(Namespace.SYSTEM,
+            "call_volume_answer", false);
+
+    // Misc
+    public static final Key WALLPAPER_KEYGUARD_WALLPAPER_TINT = booleanKey(Namespace.SYSTEM,
+            "wallpaper_keyguard_wallpaper_tint", true);
+    public static final Key WALLPAPER_NOTIFICATION_SHADE_WALLPAPER_TINT = booleanKey(
+            Namespace.SYSTEM, "wallpaper_notification_shade_wallpaper_tint", true);
+    public static final Key WALLPAPER_POWER_MENU_TINT = booleanKey(Namespace.SYSTEM,
+            "wallpaper_power_menu_tint", true);
+    public static final Key WALLPAPER_RECENTS_TINT = booleanKey(Namespace.SYSTEM,
+            "wallpaper_recents_tint", true);
+
+    private SettingsSchema() {
+    }
+
+    public static Key get(int index) {
+        return sKeys.get(index);
+    }
+
+    public static int getKeyCount() {
+        return sKeys.size();
+    }
+
+    public static List<Key> getKeys() {
+        return Collections.unmodifiableList(sKeys);
+    }
+
+    /**
+     * Throws if a preference inflated from XML doesn't name the schema entry
+     * of its key, or declares another range, so the two can't drift apart
+     * unnoticed.
+     *
+     * @param key the entry the preference names, null if it names none
+     */
+    public static void checkPreference(Key key, String preferenceKey, int min, int max,
+            int interval) {
+        if (key == null) {
+            throw new IllegalStateException("Preference " + preferenceKey
+                    + " has no schema index");
+        }
+        if (!preferenceKey.equals(key.preferenceKey)) {
+            throw new IllegalStateException("Preference " + preferenceKey
+                    + " names schema index " + key.index + ", which is " + key.preferenceKey);
+        }
+        if (min != key.min || max != key.max || interval != key.interval) {
+            throw new IllegalStateException("Preference " + preferenceKey + " declares "
+                    + min + ".." + max + " by " + interval + ", the schema "
+                    + key.min + ".." + key.max + " by " + key.interval);
+        }
+    }
+
+    private static Key booleanKey(Namespace namespace, String name, boolean defaultValue) {
+        return booleanKey(namespace, name, name, defaultValue);
+    }
+
+    private static Key booleanKey(Namespace namespace, String name, String preferenceKey,
+            boolean defaultValue) {
+        return add(namespace, name, Type.BOOLEAN, preferenceKey, defaultValue ? "1" : "0",
+                0, 1, 1);
+    }
+
+    private static Key intKey(Namespace namespace, String name, String preferenceKey,
+            int defaultValue, int min, int max) {
+        return add(namespace, name, Type.INT, preferenceKey, Integer.toString(defaultValue),
+                min, max, 1);
+    }
+
+    private static Key stringKey(Namespace namespace, String name, String preferenceKey,
+            String defaultValue) {
+        return add(namespace, name, Type.STRING, preferenceKey, defaultValue, 0, 0, 0);
+    }
+
+    private static Key add(Namespace namespace, String name, Type type, String preferenceKey,
+            String defaultValue, int min, int max, int interval) {
+        final Key key = new Key(sKeys.size(), namespace, name, type, preferenceKey,
+                defaultValue, min, max, interval);
+        sKeys.add(key);
+        return key;
+    }
+}
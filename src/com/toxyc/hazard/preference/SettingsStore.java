@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.preference.PreferenceDataStore;
+import android.provider.Settings;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * {@link PreferenceDataStore} backed by one of the {@link Settings.System},
+ * {@link Settings.Secure} or {@link Settings.Global} tables. This is the single
+ * place Hazard talks to the settings provider through: reads go through a
+ * process-wide {@link SettingsCache}, and writes go through the
+ * {@link SettingsWriteQueue} when write-behind is enabled.
+ */
+public class SettingsStore extends android.support.v7.preference.PreferenceDataStore
+        implements PreferenceDataStore {
+
+    public enum Namespace {
+        SYSTEM("system", Settings.System.CONTENT_URI) {
+            @Override
+            String getStringForUser(ContentResolver resolver, String key, int userId) {
+                return Settings.System.getStringForUser(resolver, key, userId);
+            }
+
+            @Override
+            boolean putStringForUser(ContentResolver resolver, String key, String value,
+                    int userId) {
+                return Settings.System.putStringForUser(resolver, key, value, userId);
+            }
+        },
+        SECURE("secure", Settings.Secure.CONTENT_URI) {
+            @Override
+            String getStringForUser(ContentResolver resolver, String key, int userId) {
+                return Settings.Secure.getStringForUser(resolver, key, userId);
+            }
+
+            @Override
+            boolean putStringForUser(ContentResolver resolver, String key, String value,
+                    int userId) {
+                return Settings.Secure.putStringForUser(resolver, key, value, userId);
+            }
+        },
+        GLOBAL("global", Settings.Global.CONTENT_URI) {
+            @Override
+            String getStringForUser(ContentResolver resolver, String key, int userId) {
+                return Settings.Global.getStringForUser(resolver, key, userId);
+            }
+
+            @Override
+            boolean putStringForUser(ContentResolver resolver, String key, String value,
+                    int userId) {
+                return Settings.Global.putStringForUser(resolver, key, value, userId);
+            }
+        };
+
+        private final String mName;
+        private final Uri mUri;
+
+        Namespace(String name, Uri uri) {
+            mName = name;
+            mUri = uri;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public Uri getUri() {
+            return mUri;
+        }
+
+        abstract String getStringForUser(ContentResolver resolver, String key, int userId);
+
+        abstract boolean putStringForUser(ContentResolver resolver, String key, String value,
+                int userId);
+
+        /**
+         * Writes {@code value}, or deletes the key if it is null so it reads
+         * back as unset. Deleting only works for our own user and keys still
+         * in this table, otherwise the key is set to null.
+         */
+        boolean writeForUser(ContentResolver resolver, String key, String value, int userId) {
+            if (value == null && isCallingUser(userId) && !isMoved(key)) {
+                resolver.delete(Uri.withAppendedPath(mUri, key), null, null);
+                return true;
+            }
+            return putStringForUser(resolver, key, value, userId);
+        }
+
+        /**
+         * Writes a group of values in one provider call, deleting keys whose
+         * value is null. Only for our own user and keys that aren't
+         * {@link #isMoved moved}, callers fall back to {@link #writeForUser}
+         * for the rest.
+         *
+         * @return false if the provider did not take every value
+         */
+        boolean writeAll(ContentResolver resolver, Map<String, String> values) {
+            final ArrayList<ContentValues> rows = new ArrayList<ContentValues>(values.size());
+            for (Map.Entry<String, String> entry : values.entrySet()) {
+                if (entry.getValue() == null) {
+                    resolver.delete(Uri.withAppendedPath(mUri, entry.getKey()), null, null);
+                } else {
+                    final ContentValues row = new ContentValues(2);
+                    row.put(Settings.NameValueTable.NAME, entry.getKey());
+                    row.put(Settings.NameValueTable.VALUE, entry.getValue());
+                    rows.add(row);
+                }
+            }
+            return rows.isEmpty() || resolver.bulkInsert(mUri,
+                    rows.toArray(new ContentValues[rows.size()])) == rows.size();
+        }
+
+        /**
+         * Whether the provider resolves {@code userId} to the calling user, so
+         * plain content URIs can be used.
+         */
+        boolean isCallingUser(int userId) {
+            return this == GLOBAL || userId == UserHandle.myUserId();
+        }
+
+        /**
+         * Whether the framework moved {@code key} out of this table. Its
+         * Settings accessors redirect such keys to their new table, the
+         * content URIs of this one don't.
+         */
+        boolean isMoved(String key) {
+            switch (this) {
+                case SYSTEM:
+                    return MovedKeys.FROM_SYSTEM.contains(key);
+                case SECURE:
+                    return MovedKeys.FROM_SECURE.contains(key);
+                default:
+                    return false;
+            }
+        }
+    }
+
+    // Filled on first use, enum constants can't touch their own statics early
+    private static final class MovedKeys {
+        static final HashSet<String> FROM_SYSTEM = new HashSet<String>();
+        static final HashSet<String> FROM_SECURE = new HashSet<String>();
+
+        static {
+            Settings.System.getMovedToSecureSettings(FROM_SYSTEM);
+            Settings.System.getMovedToGlobalSettings(FROM_SYSTEM);
+            Settings.Secure.getMovedToGlobalSettings(FROM_SECURE);
+        }
+    }
+
+    /**
+     * Told about keys changed through a {@link SettingsTransaction} in this
+     * process, once per transaction.
+     */
+    public interface OnSettingsChangedListener {
+        void onSettingsChanged(Namespace namespace, Set<String> keys);
+    }
+
+    private static final CopyOnWriteArrayList<OnSettingsChangedListener> sListeners =
+            new CopyOnWriteArrayList<OnSettingsChangedListener>();
+
+    private final ContentResolver mContentResolver;
+    private final Namespace mNamespace;
+    private final int mUserId;
+
+    public SettingsStore(ContentResolver contentResolver, Namespace namespace) {
+        this(contentResolver, namespace, UserHandle.myUserId());
+    }
+
+    public SettingsStore(ContentResolver contentResolver, Namespace namespace, int userId) {
+        mContentResolver = contentResolver;
+        mNamespace = namespace;
+        mUserId = userId;
+        SettingsCache.ensureObserving(contentResolver, namespace);
+    }
+
+    /**
+     * Number of reads answered from the cache since the last {@link #resetCacheStats()}.
+     */
+    public static long getCacheHitCount() {
+        return SettingsCache.getHitCount();
+    }
+
+    /**
+     * Number of reads that had to query the settings provider since the last
+     * {@link #resetCacheStats()}.
+     */
+    public static long getCacheMissCount() {
+        return SettingsCache.getMissCount();
+    }
+
+    public static void resetCacheStats() {
+        SettingsCache.resetStats();
+    }
+
+    public static void addOnSettingsChangedListener(OnSettingsChangedListener listener) {
+        sListeners.addIfAbsent(listener);
+    }
+
+    public static void removeOnSettingsChangedListener(OnSettingsChangedListener listener) {
+        sListeners.remove(listener);
+    }
+
+    /**
+     * Listeners update preferences, so they are always told on the main
+     * thread, even about a transaction applied in the background.
+     */
+    static void dispatchSettingsChanged(final Namespace namespace, final Set<String> keys) {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    dispatchSettingsChanged(namespace, keys);
+                }
+            });
+            return;
+        }
+        for (OnSettingsChangedListener listener : sListeners) {
+            listener.onSettingsChanged(namespace, keys);
+        }
+    }
+
+    /**
+     * Folds user ids the provider treats the same onto one id, so their cache
+     * entries share a key. {@link UserHandle#USER_CURRENT} is kept as is rather
+     * than asking ActivityManager for the current user on every read.
+     */
+    static int resolveUserId(Namespace namespace, int userId) {
+        if (namespace == Namespace.GLOBAL) {
+            return UserHandle.USER_SYSTEM;
+        }
+        if (userId == UserHandle.USER_CURRENT_OR_SELF) {
+            return UserHandle.USER_CURRENT;
+        }
+        return userId;
+    }
+
+    public Namespace getNamespace() {
+        return mNamespace;
+    }
+
+    public boolean contains(String key) {
+        return getStringForUser(key, null, mUserId) != null;
+    }
+
+    public boolean getBoolean(String key, boolean defValue) {
+        return getInt(key, defValue ? 1 : 0) != 0;
+    }
+
+    /**
+     * Reads {@code key} as a boolean in a single lookup, returning null if it is
+     * unset or not a number instead of falling back to a default.
+     */
+    Boolean peekBoolean(String key) {
+        String value = getString(key, null);
+        try {
+            return value != null ? Integer.parseInt(value) != 0 : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    public boolean getBoolean(SettingsSchema.Key key) {
+        return getIntForUser(key.name, key.getDefaultInt(), mUserId) != 0;
+    }
+
+    public int getInt(SettingsSchema.Key key) {
+        return getIntForUser(key, mUserId);
+    }
+
+    public int getIntForUser(SettingsSchema.Key key, int userId) {
+        return getIntForUser(key.name, key.getDefaultInt(), userId);
+    }
+
+    public String getString(SettingsSchema.Key key) {
+        return getStringForUser(key.name, key.defaultValue, mUserId);
+    }
+
+    public float getFloat(String key, float defValue) {
+        String value = getString(key, null);
+        try {
+            return value != null ? Float.parseFloat(value) : defValue;
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    public int getInt(String key, int defValue) {
+        return getIntForUser(key, defValue, mUserId);
+    }
+
+    public int getIntForUser(String key, int defValue, int userId) {
+        String value = getStringForUser(key, null, userId);
+        try {
+            return value != null ? Integer.parseInt(value) : defValue;
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    public long getLong(String key, long defValue) {
+        String value = getString(key, null);
+        try {
+            return value != null ? Long.parseLong(value) : defValue;
+        } catch (NumberFormatException e) {
+            return defValue;
+        }
+    }
+
+    public String getString(String key, String defValue) {
+        return getStringForUser(key, defValue, mUserId);
+    }
+
+    public String getStringForUser(final String key, String defValue, int userId) {
+        final long start = System.nanoTime();
+        final int resolvedUserId = resolveUserId(mNamespace, userId);
+        String result;
+        if (SettingsWriteQueue.isPending(mNamespace, resolvedUserId, key)) {
+            result = SettingsWriteQueue.getPending(mNamespace, resolvedUserId, key);
+        } else {
+            result = SettingsCache.get(
+                    SettingsCache.cacheKey(mNamespace, resolvedUserId, key),
+                    new SettingsCache.Loader() {
+                        @Override
+                        public String load() {
+                            final long loadStart = System.nanoTime();
+                            String value = mNamespace.getStringForUser(mContentResolver,
+                                    key, resolvedUserId);
+                            SettingsIoStats.record(SettingsIoStats.PROVIDER_READ,
+                                    mNamespace.getName(), key, loadStart);
+                            return value;
+                        }
+                    });
+        }
+        SettingsIoStats.record(SettingsIoStats.READ, mNamespace.getName(), key, start);
+        return result == null ? defValue : result;
+    }
+
+    public void putBoolean(String key, boolean value) {
+        putInt(key, value ? 1 : 0);
+    }
+
+    public void putFloat(String key, float value) {
+        putString(key, Float.toString(value));
+    }
+
+    public void putInt(String key, int value) {
+        putIntForUser(key, value, mUserId);
+    }
+
+    public void putIntForUser(String key, int value, int userId) {
+        putStringForUser(key, Integer.toString(value), userId);
+    }
+
+    public void putLong(String key, long value) {
+        putString(key, Long.toString(value));
+    }
+
+    public void putString(String key, String value) {
+        putStringForUser(key, value, mUserId);
+    }
+
+    public void putStringForUser(String key, String value, int userId) {
+        final long start = System.nanoTime();
+        final int resolvedUserId = resolveUserId(mNamespace, userId);
+        final String cacheKey = SettingsCache.cacheKey(mNamespace, resolvedUserId, key);
+        if (SettingsWriteQueue.write(mContentResolver, mNamespace, resolvedUserId,
+                key, value)) {
+            SettingsCache.put(cacheKey, value);
+        } else {
+            SettingsCache.invalidate(cacheKey);
+        }
+        SettingsIoStats.record(SettingsIoStats.WRITE, mNamespace.getName(), key, start);
+    }
+
+    public SettingsTransaction beginTransaction() {
+        return beginTransaction(mUserId);
+    }
+
+    public SettingsTransaction beginTransaction(int userId) {
+        return new SettingsTransaction(this, userId);
+    }
+
+    void putAllForUser(Map<String, String> values, int userId) {
+        final long start = System.nanoTime();
+        final int resolvedUserId = resolveUserId(mNamespace, userId);
+        final boolean written = SettingsWriteQueue.writeAll(mContentResolver, mNamespace,
+                resolvedUserId, values);
+        for (String key : values.keySet()) {
+            final String cacheKey = SettingsCache.cacheKey(mNamespace, resolvedUserId, key);
+            if (written) {
+                SettingsCache.put(cacheKey, values.get(key));
+            } else {
+                SettingsCache.invalidate(cacheKey);
+            }
+            SettingsIoStats.record(SettingsIoStats.WRITE, mNamespace.getName(), key, start);
+        }
+    }
+
+    /**
+     * Writes {@code value} straight to the provider, bypassing the write-behind
+     * queue. Use this when something outside of our process is told to re-read
+     * the key right after.
+     */
+    public void putNow(String key, String value) {
+        putNow(key, value, mUserId);
+    }
+
+    public void putNow(String key, String value, int userId) {
+        final long start = System.nanoTime();
+        final int resolvedUserId = resolveUserId(mNamespace, userId);
+        final String cacheKey = SettingsCache.cacheKey(mNamespace, resolvedUserId, key);
+        if (SettingsWriteQueue.writeThrough(mContentResolver, mNamespace, resolvedUserId,
+                key, value)) {
+            SettingsCache.put(cacheKey, value);
+        } else {
+            SettingsCache.invalidate(cacheKey);
+        }
+        SettingsIoStats.record(SettingsIoStats.WRITE, mNamespace.getName(), key, start);
+    }
+}
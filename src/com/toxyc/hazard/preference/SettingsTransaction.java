@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.text.TextUtils;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+/**
+ * A group of changes to one {@link SettingsStore}, applied together. Keys that
+ * already hold the new value are skipped, the rest become visible to readers
+ * in this process at once, are written to the provider back to back, and are
+ * reported in a single {@link SettingsStore.OnSettingsChangedListener} call.
+ *
+ * The batching only holds within this process. The provider still notifies
+ * its observers, SystemUI among them, once per changed key. Skipping unchanged
+ * keys is all a transaction saves them.
+ *
+ * <pre>
+ * store.beginTransaction()
+ *         .putInt(Settings.System.STATUS_BAR_CLOCK_SHOW_DATE, 0)
+ *         .putString(Settings.System.STATUS_BAR_CLOCK_DATE_FORMAT, "EEE")
+ *         .apply();
+ * </pre>
+ */
+public final class SettingsTransaction {
+    private final SettingsStore mStore;
+    private final int mUserId;
+    private final LinkedHashMap<String, String> mValues = new LinkedHashMap<String, String>();
+
+    SettingsTransaction(SettingsStore store, int userId) {
+        mStore = store;
+        mUserId = userId;
+    }
+
+    public SettingsTransaction putBoolean(String key, boolean value) {
+        return putInt(key, value ? 1 : 0);
+    }
+
+    public SettingsTransaction putFloat(String key, float value) {
+        return putString(key, Float.toString(value));
+    }
+
+    public SettingsTransaction putInt(String key, int value) {
+        return putString(key, Integer.toString(value));
+    }
+
+    public SettingsTransaction putLong(String key, long value) {
+        return putString(key, Long.toString(value));
+    }
+
+    public SettingsTransaction putString(String key, String value) {
+        mValues.put(key, value);
+        return this;
+    }
+
+    /**
+     * Applies all changes on the calling thread and notifies listeners once,
+     * on the main thread.
+     *
+     * @return the keys whose value actually changed
+     */
+    public Set<String> apply() {
+        final LinkedHashMap<String, String> changed = new LinkedHashMap<String, String>();
+        for (String key : mValues.keySet()) {
+            final String value = mValues.get(key);
+            if (!TextUtils.equals(mStore.getStringForUser(key, null, mUserId), value)) {
+                changed.put(key, value);
+            }
+        }
+        mValues.clear();
+        if (changed.isEmpty()) {
+            return Collections.<String>emptySet();
+        }
+
+        final Set<String> keys = Collections.unmodifiableSet(changed.keySet());
+        mStore.putAllForUser(changed, mUserId);
+        SettingsStore.dispatchSettingsChanged(mStore.getNamespace(), keys);
+        return keys;
+    }
+}
@@ -0,0 +1,339 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.preference;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.toxyc.hazard.preference.SettingsStore.Namespace;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Optional write-behind queue for settings writes. While enabled, writes are
+ * coalesced per key and handed to the settings provider in batches from a
+ * background thread, at most {@link #MAX_DELAY_MS} after they were queued.
+ * Pending writes are flushed right away whenever one of our activities is
+ * paused or stopped.
+ *
+ * Reads must check {@link #isPending} first, the provider only learns about a
+ * queued value once it has been flushed.
+ */
+public final class SettingsWriteQueue {
+    private static final String TAG = "SettingsWriteQueue";
+
+    // Upper bound on how long a write may sit in the queue
+    private static final long MAX_DELAY_MS = 200;
+
+    private static final Object sLock = new Object();
+    private static final LinkedHashMap<String, PendingWrite> sPending =
+            new LinkedHashMap<String, PendingWrite>();
+
+    private static volatile boolean sEnabled;
+    private static boolean sFlushScheduled;
+    private static Handler sHandler;
+    private static Application sApplication;
+
+    private static final Runnable sFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            drain();
+        }
+    };
+
+    private SettingsWriteQueue() {
+    }
+
+    /**
+     * Turns write-behind batching on or off. Turning it off flushes whatever
+     * is still queued.
+     */
+    public static void setEnabled(Context context, boolean enabled) {
+        synchronized (sLock) {
+            if (enabled && sHandler == null) {
+                HandlerThread thread = new HandlerThread(TAG,
+                        Process.THREAD_PRIORITY_BACKGROUND);
+                thread.start();
+                sHandler = new Handler(thread.getLooper());
+            }
+            if (enabled && sApplication == null) {
+                sApplication = (Application) context.getApplicationContext();
+                sApplication.registerActivityLifecycleCallbacks(sLifecycleCallbacks);
+            }
+            sEnabled = enabled;
+        }
+        if (!enabled) {
+            flush();
+        }
+    }
+
+    public static boolean isEnabled() {
+        return sEnabled;
+    }
+
+    /**
+     * Writes {@code value} to the given namespace, either right away or through
+     * the queue depending on whether write-behind is enabled.
+     *
+     * @return false if an immediate write was rejected by the provider
+     */
+    static boolean write(ContentResolver resolver, Namespace namespace, int userId, String key,
+            String value) {
+        if (!sEnabled) {
+            return writeNow(resolver, namespace, userId, key, value);
+        }
+        final String cacheKey = SettingsCache.cacheKey(namespace, userId, key);
+        synchronized (sLock) {
+            // Re-insert so the key moves to the end and batches keep write order
+            sPending.remove(cacheKey);
+            sPending.put(cacheKey, new PendingWrite(resolver, namespace, userId, key, value));
+            if (!sFlushScheduled) {
+                sFlushScheduled = true;
+                sHandler.postDelayed(sFlushRunnable, MAX_DELAY_MS);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Writes a group of values for one namespace and user. While batching they
+     * are queued together, otherwise they go to the provider right away, back
+     * to back.
+     *
+     * @return false if an immediate write of any of them was rejected
+     */
+    static boolean writeAll(ContentResolver resolver, Namespace namespace, int userId,
+            Map<String, String> values) {
+        final ArrayList<PendingWrite> batch = new ArrayList<PendingWrite>(values.size());
+        synchronized (sLock) {
+            for (String key : values.keySet()) {
+                final String cacheKey = SettingsCache.cacheKey(namespace, userId, key);
+                final PendingWrite write = new PendingWrite(resolver, namespace, userId, key,
+                        values.get(key));
+                // Anything still queued for the key must not overwrite this later
+                sPending.remove(cacheKey);
+                if (sEnabled) {
+                    sPending.put(cacheKey, write);
+                }
+                batch.add(write);
+            }
+            if (sEnabled) {
+                if (!sFlushScheduled) {
+                    sFlushScheduled = true;
+                    sHandler.postDelayed(sFlushRunnable, MAX_DELAY_MS);
+                }
+                return true;
+            }
+        }
+        return writeBatch(batch);
+    }
+
+    /**
+     * Writes {@code value} right away, dropping anything still queued for the key
+     * so it can't overwrite this value later.
+     */
+    static boolean writeThrough(ContentResolver resolver, Namespace namespace, int userId,
+            String key, String value) {
+        synchronized (sLock) {
+            sPending.remove(SettingsCache.cacheKey(namespace, userId, key));
+        }
+        return writeNow(resolver, namespace, userId, key, value);
+    }
+
+    static boolean isPending(Namespace namespace, int userId, String key) {
+        synchronized (sLock) {
+            return sPending.containsKey(SettingsCache.cacheKey(namespace, userId, key));
+        }
+    }
+
+    static String getPending(Namespace namespace, int userId, String key) {
+        synchronized (sLock) {
+            PendingWrite write = sPending.get(SettingsCache.cacheKey(namespace, userId, key));
+            return write != null ? write.value : null;
+        }
+    }
+
+    /**
+     * Hands everything queued to the background thread for writing now.
+     */
+    public static void flush() {
+        synchronized (sLock) {
+            if (sHandler == null || sPending.isEmpty()) {
+                return;
+            }
+            sHandler.removeCallbacks(sFlushRunnable);
+            sFlushScheduled = true;
+            sHandler.post(sFlushRunnable);
+        }
+    }
+
+    private static boolean writeNow(ContentResolver resolver, Namespace namespace, int userId,
+            String key, String value) {
+        final long start = System.nanoTime();
+        final boolean written = namespace.writeForUser(resolver, key, value, userId);
+        SettingsIoStats.record(SettingsIoStats.PROVIDER_WRITE, namespace.getName(), key, start);
+        return written;
+    }
+
+    private static void drain() {
+        final List<PendingWrite> batch;
+        synchronized (sLock) {
+            sFlushScheduled = false;
+            batch = new ArrayList<PendingWrite>(sPending.values());
+        }
+        // One provider call per namespace and user
+        final LinkedHashMap<String, List<PendingWrite>> groups =
+                new LinkedHashMap<String, List<PendingWrite>>();
+        for (PendingWrite write : batch) {
+            if (!isCurrent(write)) {
+                // Replaced or written through since the snapshot
+                continue;
+            }
+            final String group = write.namespace.getName() + '/' + write.userId;
+            List<PendingWrite> writes = groups.get(group);
+            if (writes == null) {
+                writes = new ArrayList<PendingWrite>();
+                groups.put(group, writes);
+            }
+            writes.add(write);
+        }
+        for (List<PendingWrite> writes : groups.values()) {
+            completeAll(writes);
+        }
+    }
+
+    /**
+     * Writes queued writes of one namespace and user and takes them off the
+     * queue.
+     */
+    private static void completeAll(List<PendingWrite> batch) {
+        final boolean written = writeBatch(batch);
+        for (PendingWrite write : batch) {
+            finish(write, written);
+        }
+    }
+
+    /**
+     * Writes a batch for one namespace and user, in a single provider call
+     * when the user allows it. Keys the framework moved to another table are
+     * written one by one, so the framework can redirect them.
+     */
+    private static boolean writeBatch(List<PendingWrite> batch) {
+        final PendingWrite first = batch.get(0);
+        final boolean bulk = batch.size() > 1 && first.namespace.isCallingUser(first.userId);
+        final LinkedHashMap<String, String> values = new LinkedHashMap<String, String>();
+        boolean written = true;
+        for (PendingWrite write : batch) {
+            if (bulk && !write.namespace.isMoved(write.key)) {
+                values.put(write.key, write.value);
+            } else {
+                written &= writeNow(write.resolver, write.namespace, write.userId,
+                        write.key, write.value);
+            }
+        }
+        if (!values.isEmpty()) {
+            final long start = System.nanoTime();
+            written &= first.namespace.writeAll(first.resolver, values);
+            SettingsIoStats.record(SettingsIoStats.PROVIDER_WRITE, first.namespace.getName(),
+                    null, start);
+        }
+        return written;
+    }
+
+    private static boolean isCurrent(PendingWrite write) {
+        synchronized (sLock) {
+            return sPending.get(SettingsCache.cacheKey(write.namespace, write.userId,
+                    write.key)) == write;
+        }
+    }
+
+    private static void finish(PendingWrite write, boolean written) {
+        final String cacheKey = SettingsCache.cacheKey(write.namespace, write.userId,
+                write.key);
+        if (!written) {
+            Log.w(TAG, "Failed to write " + cacheKey);
+            SettingsCache.invalidate(cacheKey);
+        }
+        synchronized (sLock) {
+            // Keep the entry visible to readers until the provider has it, and
+            // leave it alone if it was replaced by a newer value meanwhile
+            if (sPending.get(cacheKey) == write) {
+                sPending.remove(cacheKey);
+            }
+        }
+    }
+
+    private static final class PendingWrite {
+        final ContentResolver resolver;
+        final Namespace namespace;
+        final int userId;
+        final String key;
+        final String value;
+
+        PendingWrite(ContentResolver resolver, Namespace namespace, int userId, String key,
+                String value) {
+            this.resolver = resolver;
+            this.namespace = namespace;
+            this.userId = userId;
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    private static final Application.ActivityLifecycleCallbacks sLifecycleCallbacks =
+            new Application.ActivityLifecycleCallbacks() {
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+            flush();
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+            flush();
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+        }
+    };
+}
@@ -41,6 +41,7 @@ import android.widget.ExpandableListView;
 import android.widget.TextView;
 
 import com.android.settings.R;
+import com.toxyc.hazard.utils.PackageInfoCache;
 import com.toxyc.hazard.preference.ShortcutPickHelper.AppExpandableAdapter.GroupInfo;
 
 public class ShortcutPickHelper {
@@ -201,8 +202,9 @@ public class ShortcutPickHelper {
         }
 
         public AppExpandableAdapter(List<PackageInfo> pInfos, Context context) {
+            final PackageInfoCache packages = PackageInfoCache.getInstance(context);
             for (PackageInfo i : pInfos) {
-                allList.add(new GroupInfo(i.applicationInfo.loadLabel(mPackageManager).toString(), i));
+                allList.add(new GroupInfo(packages.getApplicationLabel(i.applicationInfo), i));
             }
             Collections.sort(allList, new LabelCompare());
             groupPadding = context.getResources().getDimensionPixelSize(R.dimen.shortcut_picker_left_padding);
@@ -290,7 +292,7 @@ public class ShortcutPickHelper {
         ActivityInfo ai = intent.resolveActivityInfo(mPackageManager, PackageManager.GET_ACTIVITIES);
         String friendlyName = null;
         if (ai != null) {
-            friendlyName = ai.loadLabel(mPackageManager).toString();
+            friendlyName = PackageInfoCache.getInstance(mParent).getActivityLabel(ai);
             if (friendlyName == null && !labelOnly) {
                 friendlyName = ai.name;
             }
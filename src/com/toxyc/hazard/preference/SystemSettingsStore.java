@@ -17,57 +17,13 @@
 package com.toxyc.hazard.preference;
 
 import android.content.ContentResolver;
-import android.preference.PreferenceDataStore;
-import android.provider.Settings;
 
-public class SystemSettingsStore extends android.support.v7.preference.PreferenceDataStore
-        implements PreferenceDataStore {
-
-    private ContentResolver mContentResolver;
+/**
+ * {@link SettingsStore} for the {@link android.provider.Settings.System} table.
+ */
+public class SystemSettingsStore extends SettingsStore {
 
     public SystemSettingsStore(ContentResolver contentResolver) {
-        mContentResolver = contentResolver;
-    }
-
-    public boolean getBoolean(String key, boolean defValue) {
-        return getInt(key, defValue ? 1 : 0) != 0;
-    }
-
-    public float getFloat(String key, float defValue) {
-        return Settings.System.getFloat(mContentResolver, key, defValue);
-    }
-
-    public int getInt(String key, int defValue) {
-        return Settings.System.getInt(mContentResolver, key, defValue);
-    }
-
-    public long getLong(String key, long defValue) {
-        return Settings.System.getLong(mContentResolver, key, defValue);
-    }
-
-    public String getString(String key, String defValue) {
-        String result = Settings.System.getString(mContentResolver, key);
-        return result == null ? defValue : result;
+        super(contentResolver, Namespace.SYSTEM);
     }
-
-    public void putBoolean(String key, boolean value) {
-        putInt(key, value ? 1 : 0);
-    }
-
-    public void putFloat(String key, float value) {
-        Settings.System.putFloat(mContentResolver, key, value);
-    }
-
-    public void putInt(String key, int value) {
-        Settings.System.putInt(mContentResolver, key, value);
-    }
-
-    public void putLong(String key, long value) {
-        Settings.System.putLong(mContentResolver, key, value);
-    }
-
-    public void putString(String key, String value) {
-        Settings.System.putString(mContentResolver, key, value);
-    }
-
 }
@@ -34,6 +34,8 @@ import com.android.settings.SettingsPreferenceFragment;
 import com.android.internal.logging.nano.MetricsProto;
 import com.android.settings.Utils;
 
+import com.toxyc.hazard.preference.ScreenTrace;
+
 public class Lockscreen extends SettingsPreferenceFragment implements
         Preference.OnPreferenceChangeListener {
     
@@ -43,7 +45,9 @@ public class Lockscreen extends SettingsPreferenceFragment implements
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        final ScreenTrace.Section inflate = ScreenTrace.begin("Lockscreen inflate");
         addPreferencesFromResource(R.xml.lockscreen);
+        inflate.end();
 
         ContentResolver resolver = getActivity().getContentResolver();
     }
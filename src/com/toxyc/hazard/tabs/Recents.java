@@ -34,6 +34,8 @@ import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.settings.Utils;
 
+import com.toxyc.hazard.preference.ScreenTrace;
+
 public class Recents extends SettingsPreferenceFragment implements
         Preference.OnPreferenceChangeListener {
 
@@ -43,7 +45,9 @@ public class Recents extends SettingsPreferenceFragment implements
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        final ScreenTrace.Section inflate = ScreenTrace.begin("Recents inflate");
         addPreferencesFromResource(R.xml.recents);
+        inflate.end();
 
         ContentResolver resolver = getActivity().getContentResolver();
     }
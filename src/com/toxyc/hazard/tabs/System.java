@@ -38,6 +38,7 @@ import com.android.settings.SettingsPreferenceFragment;
 import com.android.internal.logging.nano.MetricsProto;
 
 import com.toxyc.hazard.fragments.display.FontDialogPreference;
+import com.toxyc.hazard.preference.ScreenTrace;
 import com.android.settings.R;
 
 import java.util.ArrayList;
@@ -60,7 +61,7 @@ public class System extends SettingsPreferenceFragment implements
         public void onReceive(Context context, Intent intent) {
             String action = intent.getAction();
             if (action.equals("com.android.server.ACTION_FONT_CHANGED")) {
-                mFontPreference.stopProgress();
+                mFontPreference.onFontChanged();
             }
         }
     };
@@ -84,7 +85,9 @@ public class System extends SettingsPreferenceFragment implements
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        final ScreenTrace.Section inflate = ScreenTrace.begin("System inflate");
         addPreferencesFromResource(R.xml.system);
+        inflate.end();
 
         ContentResolver resolver = getActivity().getContentResolver();
 
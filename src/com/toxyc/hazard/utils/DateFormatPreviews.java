@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.utils;
+
+import android.text.format.DateFormat;
+import android.util.LruCache;
+
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * Cached previews of status bar date formats, keyed by format, case style,
+ * locale and time zone. A preview showing hours or minutes is kept until the
+ * next minute, any other until midnight. Previews showing seconds aren't
+ * cached.
+ */
+public final class DateFormatPreviews {
+
+    public static final int STYLE_LOWERCASE = 1;
+    public static final int STYLE_UPPERCASE = 2;
+
+    private static final int MAX_PREVIEWS = 64;
+    private static final long MINUTE_MILLIS = 60 * 1000;
+
+    // Pattern letters that change more than once a day
+    private static final String TIME_FIELDS = "aAhHkKm";
+    // Pattern letters that change more than once a minute
+    private static final String SECOND_FIELDS = "sS";
+
+    private static final LruCache<String, Preview> sPreviews =
+            new LruCache<String, Preview>(MAX_PREVIEWS);
+
+    private static final class Preview {
+        final String text;
+        final long expiresMillis;
+
+        Preview(String text, long expiresMillis) {
+            this.text = text;
+            this.expiresMillis = expiresMillis;
+        }
+    }
+
+    private DateFormatPreviews() {
+    }
+
+    /**
+     * Returns the current date in {@code format}, converted to {@code style}.
+     */
+    public static String get(String format, int style) {
+        final Locale locale = Locale.getDefault();
+        final long now = System.currentTimeMillis();
+        if (containsAny(format, SECOND_FIELDS)) {
+            return format(format, style, locale, now);
+        }
+        final String cacheKey = format + '\u0000' + style + '\u0000' + locale.toLanguageTag()
+                + '\u0000' + TimeZone.getDefault().getID();
+        Preview preview = sPreviews.get(cacheKey);
+        if (preview == null || now >= preview.expiresMillis) {
+            preview = new Preview(format(format, style, locale, now),
+                    getExpiry(format, now));
+            sPreviews.put(cacheKey, preview);
+        }
+        return preview.text;
+    }
+
+    /**
+     * Previews a format typed by the user, or returns null if it isn't a
+     * valid pattern. Not cached, as every keystroke gives a new format.
+     */
+    public static String validate(String format, int style) {
+        if (format.isEmpty()) {
+            return null;
+        }
+        try {
+            // Stricter than DateFormat, which copies unknown letters as they are
+            new SimpleDateFormat(format, Locale.getDefault());
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return format(format, style, Locale.getDefault(), System.currentTimeMillis());
+    }
+
+    private static String format(String format, int style, Locale locale, long now) {
+        final String text = DateFormat.format(format, new Date(now)).toString();
+        if (style == STYLE_LOWERCASE) {
+            return text.toLowerCase(locale);
+        } else if (style == STYLE_UPPERCASE) {
+            return text.toUpperCase(locale);
+        }
+        return text;
+    }
+
+    private static long getExpiry(String format, long now) {
+        if (containsAny(format, TIME_FIELDS)) {
+            return (now / MINUTE_MILLIS + 1) * MINUTE_MILLIS;
+        }
+        final Calendar midnight = Calendar.getInstance();
+        midnight.setTimeInMillis(now);
+        midnight.set(Calendar.HOUR_OF_DAY, 0);
+        midnight.set(Calendar.MINUTE, 0);
+        midnight.set(Calendar.SECOND, 0);
+        midnight.set(Calendar.MILLISECOND, 0);
+        midnight.add(Calendar.DAY_OF_MONTH, 1);
+        return midnight.getTimeInMillis();
+    }
+
+    private static boolean containsAny(String format, String letters) {
+        for (int i = 0; i < format.length(); i++) {
+            if (letters.indexOf(format.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
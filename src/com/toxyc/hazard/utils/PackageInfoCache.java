@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2018 ToxycOS Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.toxyc.hazard.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ActivityInfo;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
+import android.util.LruCache;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of application and activity labels and application
+ * icons, so list adapters don't go to the package manager on every bind.
+ * Labels are all kept, icons in a small LRU. Entries of a package are
+ * dropped when it is added, removed, replaced or changed, and all labels
+ * when the locale changes.
+ */
+public final class PackageInfoCache {
+
+    private static final int MAX_ICONS = 48;
+
+    // Cached for packages that aren't installed, as the map can't hold null.
+    // Compared by identity only.
+    private static final String ABSENT = new String("<absent>");
+
+    private static PackageInfoCache sInstance;
+
+    private final PackageManager mPm;
+    // Application labels by package name, activity labels by package/class
+    private final ConcurrentHashMap<String, String> mLabels =
+            new ConcurrentHashMap<String, String>();
+    private final LruCache<String, Drawable.ConstantState> mIcons =
+            new LruCache<String, Drawable.ConstantState>(MAX_ICONS);
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            if (data != null) {
+                invalidate(data.getSchemeSpecificPart());
+            }
+        }
+    };
+
+    private final BroadcastReceiver mLocaleReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            mLabels.clear();
+        }
+    };
+
+    private PackageInfoCache(Context context) {
+        mPm = context.getPackageManager();
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiver(mPackageReceiver, filter);
+        context.registerReceiver(mLocaleReceiver,
+                new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+    }
+
+    public static synchronized PackageInfoCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageInfoCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the label of an installed application, or null.
+     */
+    public String getApplicationLabel(String packageName) {
+        String label = mLabels.get(packageName);
+        if (label == null) {
+            try {
+                label = loadLabel(mPm.getApplicationInfo(packageName, 0));
+            } catch (PackageManager.NameNotFoundException e) {
+                label = ABSENT;
+            }
+            mLabels.put(packageName, label);
+        }
+        return label == ABSENT ? null : label;
+    }
+
+    /**
+     * Returns the label of an application the caller already has the info of.
+     */
+    public String getApplicationLabel(ApplicationInfo info) {
+        String label = mLabels.get(info.packageName);
+        if (label == null || label == ABSENT) {
+            label = loadLabel(info);
+            mLabels.put(info.packageName, label);
+        }
+        return label;
+    }
+
+    public String getActivityLabel(ActivityInfo info) {
+        final String cacheKey = info.packageName + '/' + info.name;
+        String label = mLabels.get(cacheKey);
+        if (label == null) {
+            label = info.loadLabel(mPm).toString();
+            mLabels.put(cacheKey, label);
+        }
+        return label;
+    }
+
+    /**
+     * Returns a new drawable of the application icon, or null if the package
+     * isn't installed.
+     */
+    public Drawable getApplicationIcon(String packageName) {
+        Drawable.ConstantState state = mIcons.get(packageName);
+        if (state == null) {
+            final Drawable icon;
+            try {
+                icon = mPm.getApplicationInfo(packageName, 0).loadIcon(mPm);
+            } catch (PackageManager.NameNotFoundException e) {
+                return null;
+            }
+            state = icon.getConstantState();
+            if (state == null) {
+                // Can't be shared between views, don't cache it
+                return icon;
+            }
+            mIcons.put(packageName, state);
+        }
+        // Views each need their own drawable, sharing only the bitmap
+        return state.newDrawable();
+    }
+
+    public void invalidate(String packageName) {
+        final String prefix = packageName + '/';
+        for (String cacheKey : mLabels.keySet()) {
+            if (cacheKey.equals(packageName) || cacheKey.startsWith(prefix)) {
+                mLabels.remove(cacheKey);
+            }
+        }
+        mIcons.remove(packageName);
+    }
+
+    private String loadLabel(ApplicationInfo info) {
+        return info.loadLabel(mPm).toString();
+    }
+}